@@ -1,10 +1,54 @@
 import java.io.*;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.BreakIterator;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
 import java.util.Map;
-import java.util.StringTokenizer;
+import java.util.Queue;
+import java.util.Set;
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
 
 public final class HavaloCodingChallenge {
 
@@ -20,11 +64,92 @@ public final class HavaloCodingChallenge {
      * "123321" -> true
      */
     public static boolean isPalindrome(String word) {
-        // While I could have implemented a custom isPalindrome algorithm (using recursion or just checking each character against its opposite counterpart),
-        // I decided to reuse the reverseWord function because (a) there is not efficiency sacrifice – regardless of what algorithm I use, O(n) will always be the best
-        // time-complexity and (b) the DRY principle.
+        // Check each character against its opposite counterpart, walking in from both ends.  This is still O(n), but
+        // unlike comparing against reverseWord(word) it allocates nothing and stops at the first mismatch, which is
+        // where most non-palindromes are decided.
 
-        return word.equals(reverseWord(word));
+        for (int i = 0, j = word.length() - 1; i < j; i++, j--) {
+            if (word.charAt(i) != word.charAt(j)) {
+                return false;
+            }
+
+            // Long words that survive a short scalar probe go to the SIMD kernels, when they are available
+            if (i == VECTOR_THRESHOLD / 2 && VECTOR_KERNELS != null) {
+                return VECTOR_KERNELS.isPalindrome(word);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns true if the input string reads the same in both directions when everything but letters and digits is
+     * ignored and case is folded.
+     *
+     * "A man, a plan, a canal: Panama" -> true
+     * "No 'x' in Nixon" -> true
+     * "Havalo" -> false
+     */
+    public static boolean isPhrasePalindrome(String word) {
+        // The isPalindrome walk, except that each pointer first steps over anything that is not a letter or digit
+        // and the two characters are compared case-folded.  Nothing is copied; pairs of ASCII chars never leave
+        // the first branch.
+
+        int i = 0;
+        int j = word.length() - 1;
+        while (i < j) {
+            char front = word.charAt(i);
+            char back = word.charAt(j);
+
+            if (front < 0x80 && back < 0x80) {
+                int frontKey = asciiFoldKey(front);
+                int backKey = asciiFoldKey(back);
+                if (frontKey < 0) {
+                    i++;
+                } else if (backKey < 0) {
+                    j--;
+                } else if (frontKey != backKey) {
+                    return false;
+                } else {
+                    i++;
+                    j--;
+                }
+                continue;
+            }
+
+            // Anything else is compared by code point, so surrogate pairs are handled as one character
+            int frontCodePoint = word.codePointAt(i);
+            int backCodePoint = word.codePointBefore(j + 1);
+            if (!Character.isLetterOrDigit(frontCodePoint)) {
+                i += Character.charCount(frontCodePoint);
+            } else if (!Character.isLetterOrDigit(backCodePoint)) {
+                j -= Character.charCount(backCodePoint);
+            } else if (foldCase(frontCodePoint) != foldCase(backCodePoint)) {
+                return false;
+            } else {
+                i += Character.charCount(frontCodePoint);
+                j -= Character.charCount(backCodePoint);
+            }
+        }
+
+        return true;
+    }
+
+    // ASCII letters lower-cased and digits as they are; -1 for everything else
+    private static int asciiFoldKey(char c) {
+        if (c >= 'a' && c <= 'z' || c >= '0' && c <= '9') {
+            return c;
+        }
+        if (c >= 'A' && c <= 'Z') {
+            return c | 0x20;
+        }
+        return -1;
+    }
+
+    // Simple case folding, as String.equalsIgnoreCase does it: upper-case then lower-case, so that e.g. the long s
+    // and the Kelvin sign match their ASCII letters
+    private static int foldCase(int codePoint) {
+        return Character.toLowerCase(Character.toUpperCase(codePoint));
     }
 
     /**
@@ -38,28 +163,85 @@ public final class HavaloCodingChallenge {
      */
     public static boolean containsDuplicateCharacters(String word) {
         // In approaching this problem I determined two solutions: (1) Iterate through every character and compare it against
-        // every other character (this is O(n^2) yikes!) or (2) maintain an array with flags for every ASCII character and
-        // for every character check if the flag has already been set (the downfall of this approach is that it takes more
-        // memory – although this is trivial for the scale of this project).
+        // every other character (this is O(n^2) yikes!) or (2) keep a flag for every character and for every character
+        // check if the flag has already been set.  The flags are kept as bits and cover all of Unicode, so there is no
+        // fixed-size table to index out of.
 
-        char[] wordCharArr = word.toCharArray();
+        // Every character takes at most two chars, so past this length some code point must repeat
+        if (word.length() > 2 * (Character.MAX_CODE_POINT + 1)) {
+            return true;
+        }
 
-        // Create an array of bools which is the size of ASCII and for every ASCII index set the array element to false
-        boolean[] wordBoolArr = new boolean[256];
-        Arrays.fill(wordBoolArr, false);
+        // ASCII flags stay in two local longs (a 128-bit mask, so no two characters share a bit)
+        long ascii0 = 0;
+        long ascii1 = 0;
 
-        for (int i = 0; i < wordCharArr.length; i++) {
-            if (wordBoolArr[(int) wordCharArr[i]]) {
-                // If the flag has already been set there is a duplicate...
-                return true;
-            }
+        for (int i = 0, length = word.length(); i < length; i++) {
+            int codePoint = word.charAt(i);
+            long bit = 1L << codePoint;
 
-            wordBoolArr[(int) wordCharArr[i]] = true;
+            if (codePoint < 0x40) {
+                if ((ascii0 & bit) != 0) {
+                    // If the flag has already been set there is a duplicate...
+                    return true;
+                }
+                ascii0 |= bit;
+            } else if (codePoint < 0x80) {
+                if ((ascii1 & bit) != 0) {
+                    return true;
+                }
+                ascii1 |= bit;
+            } else {
+                // From the first wider character on, this thread's CodePointSet takes over, seeded with the ASCII
+                // flags so far.  Keeping that out of this loop keeps the ASCII path small enough to inline.
+                CodePointSet seen = CodePointSet.forCurrentThread();
+                seen.ascii0_ = ascii0;
+                seen.ascii1_ = ascii1;
+                return seen.containsDuplicates(word, i);
+            }
         }
 
         return false;
     }
 
+    /**
+     * Returns every character that occurs more than once in the input string, with its count and the index of its
+     * first occurrence, as a JSON object.  Characters are listed in order of first occurrence; a surrogate pair
+     * counts as one character.
+     *
+     * "java" -> {"duplicates":[{"char":"a","count":2,"first":1}]}
+     * "code" -> {"duplicates":[]}
+     */
+    public static String duplicateCharacterReport(String word) {
+        // One pass fills the histogram; only the (few) duplicated characters are sorted and written out.
+
+        CodePointHistogram histogram = new CodePointHistogram();
+        for (int i = 0, length = word.length(); i < length; i++) {
+            int codePoint = word.charAt(i);
+            int first = i;
+            if (Character.isHighSurrogate((char) codePoint) && i + 1 < length && Character.isLowSurrogate(word.charAt(i + 1))) {
+                codePoint = Character.toCodePoint((char) codePoint, word.charAt(++i));
+            }
+            histogram.add(codePoint, first);
+        }
+
+        long[] duplicates = histogram.duplicates();
+        StringBuilder json = new StringBuilder(32 + duplicates.length * 40);
+        json.append("{\"duplicates\":[");
+        for (int i = 0; i < duplicates.length; i++) {
+            int codePoint = (int) (duplicates[i] & 0x1FFFFF);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"char\":\"");
+            appendJsonChar(json, codePoint);
+            json.append("\",\"count\":").append(histogram.count(codePoint));
+            json.append(",\"first\":").append(duplicates[i] >>> 21);
+            json.append('}');
+        }
+        return json.append("]}").toString();
+    }
+
     /**
      * Must return the reverse string representation of the input string.
      *
@@ -71,6 +253,10 @@ public final class HavaloCodingChallenge {
         // In a production environment I would most likely use the standard library reverse function (StringBuilder(word).reverse().toString()); 
         // however, in the spirit of this programming challenge, I have implemented my own reverse functionality.
 
+        if (word.length() >= VECTOR_THRESHOLD && VECTOR_KERNELS != null) {
+            return VECTOR_KERNELS.reverseWord(word);
+        }
+
         char[] wordCharArr = word.toCharArray();
         char[] returnCharArr = new char[wordCharArr.length];
 
@@ -81,181 +267,3128 @@ public final class HavaloCodingChallenge {
         return new String(returnCharArr);
     }
 
-    // ------------------------------------------------------------------------------
-    // ------------------------------------------------------------------------------
+    /**
+     * Returns the input string reversed by Unicode code point, so surrogate pairs (e.g. emoji) stay intact.
+     *
+     * "a😀b" -> "b😀a"
+     */
+    public static String reverseCodePoints(String word) {
+        // This is the reverseWord loop plus one branch that words without surrogates never take
+        char[] wordCharArr = word.toCharArray();
+        int length = wordCharArr.length;
+        char[] returnCharArr = new char[length];
 
-    public static void main(String... args) throws Exception {
-        new WebServer(4444).start();
+        for (int i = 0; i < length; i++) {
+            char c = wordCharArr[i];
+            if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(wordCharArr[i + 1])) {
+                // Keep the pair in order at its mirrored position
+                returnCharArr[length - i - 2] = c;
+                returnCharArr[length - i - 1] = wordCharArr[++i];
+            } else {
+                returnCharArr[length - i - 1] = c;
+            }
+        }
+
+        return new String(returnCharArr);
     }
 
-    private static class WebServer {
+    /**
+     * Returns the input string reversed by grapheme cluster, so a base character keeps its combining marks and
+     * surrogate pairs stay intact.
+     *
+     * "cafe\u0301" -> "e\u0301fac"
+     */
+    public static String reverseGraphemes(String word) {
+        // Below U+0300 (where combining marks start) every char is a cluster of its own, except CR in CR LF, so
+        // those words are reversed by the char loop.  Anything else starts over with a BreakIterator.
+        char[] wordCharArr = word.toCharArray();
+        int length = wordCharArr.length;
+        char[] returnCharArr = new char[length];
 
-        private int port_;
+        for (int i = 0; i < length; i++) {
+            char c = wordCharArr[i];
+            if (c >= 0x300 || c == '\r') {
+                return reverseClusters(word);
+            }
+            returnCharArr[length - 1 - i] = c;
+        }
 
-        public WebServer(int port) {
-            port_ = port;
+        return new String(returnCharArr);
+    }
+
+    private static String reverseClusters(String word) {
+        BreakIterator boundaries = GRAPHEMES.get();
+        boundaries.setText(word);
+
+        StringBuilder reversed = new StringBuilder(word.length());
+        int end = boundaries.last();
+        for (int start = boundaries.previous(); start != BreakIterator.DONE; end = start, start = boundaries.previous()) {
+            reversed.append(word, start, end);
         }
 
-        public void start() throws Exception {
-            ServerSocket serverSocket = new ServerSocket(port_);
-            System.out.println("\nWeb-server started! ... press Ctrl-C to quit.");
-            System.out.println("Load http://localhost:4444 in your web-browser.");
+        return reversed.toString();
+    }
 
-            while (true) {
-                Socket s = serverSocket.accept(); // Wait for a browser to connect
-                new Router(s).start(); // Start a separate thread to process the request
+    // BreakIterator is not thread-safe and costly to create, so each thread keeps one
+    private static final ThreadLocal<BreakIterator> GRAPHEMES =
+            ThreadLocal.withInitial(() -> BreakIterator.getCharacterInstance(Locale.ROOT));
+
+    /**
+     * Returns the longest substring of the input string that is a palindrome (the first one, if several are equally
+     * long).  Like isPalindrome, this compares chars.
+     *
+     * "banana" -> "anana"
+     * "abba" -> "abba"
+     * "havalo" -> "ava"
+     */
+    public static String longestPalindrome(String word) {
+        // Manacher's algorithm: a palindrome centered inside the rightmost palindrome found so far mirrors one
+        // centered on the other side of it, so its radius starts from the mirror's and each char is compared O(1)
+        // times overall.  That is O(n) instead of the O(n^2) of expanding around every center.
+
+        char[] wordCharArr = word.toCharArray();
+        int length = wordCharArr.length;
+        if (length == 0) {
+            return "";
+        }
+
+        // One radius array, reused by the odd and even passes
+        int[] radius = new int[length];
+        int bestStart = 0;
+        int bestLength = 1;
+
+        // Odd lengths: wordCharArr[i - k + 1 .. i + k - 1] is a palindrome of length 2k - 1
+        for (int i = 0, left = 0, right = -1; i < length; i++) {
+            int k = i > right ? 1 : Math.min(radius[left + right - i], right - i + 1);
+            while (i - k >= 0 && i + k < length && wordCharArr[i - k] == wordCharArr[i + k]) {
+                k++;
+            }
+            radius[i] = k;
+
+            if (i + k - 1 > right) {
+                left = i - k + 1;
+                right = i + k - 1;
+            }
+            if (2 * k - 1 > bestLength) {
+                bestStart = i - k + 1;
+                bestLength = 2 * k - 1;
+            }
+        }
+
+        // Even lengths: wordCharArr[i - k .. i + k - 1] is a palindrome of length 2k
+        for (int i = 0, left = 0, right = -1; i < length; i++) {
+            int k = i > right ? 0 : Math.min(radius[left + right - i + 1], right - i + 1);
+            while (i - k - 1 >= 0 && i + k < length && wordCharArr[i - k - 1] == wordCharArr[i + k]) {
+                k++;
+            }
+            radius[i] = k;
+
+            if (i + k - 1 > right) {
+                left = i - k;
+                right = i + k - 1;
+            }
+            if (2 * k > bestLength) {
+                bestStart = i - k;
+                bestLength = 2 * k;
             }
         }
 
+        return word.substring(bestStart, bestStart + bestLength);
     }
 
-    private static class Router extends Thread {
+    /**
+     * Returns the palindrome, duplicate character and reverse results for the input string as a compact
+     * JSON object, computed in a single pass over its characters.
+     *
+     * "java" -> {"palindrome":false,"duplicates":true,"reverse":"avaj"}
+     * "abba" -> {"palindrome":true,"duplicates":true,"reverse":"abba"}
+     */
+    public static String analyzeWord(String word) {
+        // Fuses isPalindrome, containsDuplicateCharacters and reverseWord so the page needs one request and the
+        // string is only scanned once.
 
-        private static final String CRLF = "\r\n";
+        int length = word.length();
+        char[] reversedCharArr = new char[length];
+        CodePointSet seen = CodePointSet.forCurrentThread();
+        boolean palindrome = true;
+        boolean duplicates = false;
 
-        private Socket socket_;
+        for (int i = 0; i < length; i++) {
+            char c = word.charAt(i);
+            reversedCharArr[length - 1 - i] = c;
 
-        // Start the thread in the constructor
-        public Router(Socket s) {
-            socket_ = s;
-            setDaemon(true);
+            // Only the first half needs comparing against its opposite counterpart
+            if (palindrome && i < length / 2 && c != word.charAt(length - 1 - i)) {
+                palindrome = false;
+            }
+
+            // A surrogate pair counts as one character, added when its high half is seen
+            if (!duplicates && !(Character.isLowSurrogate(c) && i > 0 && Character.isHighSurrogate(word.charAt(i - 1)))) {
+                duplicates = !seen.add(word.codePointAt(i));
+            }
         }
 
-        // Read the HTTP request, respond, and close the connection
-        public void run() {
-            try (BufferedReader in = new BufferedReader(new InputStreamReader(socket_.getInputStream()));
-                 PrintStream out = new PrintStream(new BufferedOutputStream(socket_.getOutputStream()))) {
+        StringBuilder json = new StringBuilder(length + 64);
+        json.append("{\"palindrome\":").append(palindrome);
+        json.append(",\"duplicates\":").append(duplicates);
+        json.append(",\"reverse\":");
+        appendJsonString(json, CharBuffer.wrap(reversedCharArr));
+        return json.append('}').toString();
+    }
+
+    private static void appendJsonString(StringBuilder json, CharSequence chars) {
+        json.append('"');
+        for (int i = 0; i < chars.length(); i++) {
+            appendJsonChar(json, chars.charAt(i));
+        }
+        json.append('"');
+    }
 
-                String requestLine = in.readLine();
-                System.out.println(requestLine); // Log the request
+    private static void appendJsonChar(StringBuilder json, int codePoint) {
+        if (codePoint == '"' || codePoint == '\\') {
+            json.append('\\').append((char) codePoint);
+        } else if (codePoint < 0x20) {
+            json.append(String.format("\\u%04x", codePoint));
+        } else {
+            json.appendCodePoint(codePoint);
+        }
+    }
 
-                String route;
-                StringTokenizer st = new StringTokenizer(requestLine);
+    // Code points as bits: two longs for ASCII, a lazily allocated 65536-bit table for the rest of the BMP and a
+    // hash set for supplementary code points.  Each thread reuses one; clear() only zeroes the words it touched.
+    private static final class CodePointSet {
 
-                // Parse the route from the GET request
-                if (st.hasMoreElements() && st.nextToken().equalsIgnoreCase("GET")
-                        && st.hasMoreElements()) {
-                    route = st.nextToken();
-                } else {
-                    throw new FileNotFoundException(); // Bad request
+        private static final ThreadLocal<CodePointSet> SETS = ThreadLocal.withInitial(CodePointSet::new);
+
+        private long ascii0_;
+        private long ascii1_;
+        private long[] bmp_;
+        private int[] dirty_;
+        private int dirtyCount_;
+        private Set<Integer> supplementary_;
+
+        // Returns this thread's set, emptied
+        static CodePointSet forCurrentThread() {
+            CodePointSet set = SETS.get();
+            set.clear();
+            return set;
+        }
+
+        void clear() {
+            ascii0_ = 0;
+            ascii1_ = 0;
+
+            for (int i = 0; i < dirtyCount_; i++) {
+                bmp_[dirty_[i]] = 0;
+            }
+            dirtyCount_ = 0;
+
+            // Don't let one huge word pin a large hash table to the thread
+            if (supplementary_ != null && supplementary_.size() > 1024) {
+                supplementary_ = null;
+            } else if (supplementary_ != null) {
+                supplementary_.clear();
+            }
+        }
+
+        // Adds the code points of word from index start on, returning true at the first one already in the set
+        boolean containsDuplicates(String word, int start) {
+            for (int i = start, length = word.length(); i < length; i++) {
+                int codePoint = word.charAt(i);
+                if (Character.isHighSurrogate((char) codePoint) && i + 1 < length && Character.isLowSurrogate(word.charAt(i + 1))) {
+                    codePoint = Character.toCodePoint((char) codePoint, word.charAt(++i));
+                }
+
+                if (!add(codePoint)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // Returns false if the code point was already in the set
+        boolean add(int codePoint) {
+            if (codePoint < 0x40) {
+                long bit = 1L << codePoint;
+                boolean added = (ascii0_ & bit) == 0;
+                ascii0_ |= bit;
+                return added;
+            }
+
+            if (codePoint < 0x80) {
+                // Shifts only use the low 6 bits, so this is bit (codePoint - 64)
+                long bit = 1L << codePoint;
+                boolean added = (ascii1_ & bit) == 0;
+                ascii1_ |= bit;
+                return added;
+            }
+
+            if (codePoint <= Character.MAX_VALUE) {
+                if (bmp_ == null) {
+                    bmp_ = new long[(Character.MAX_VALUE + 1) / 64];
+                    dirty_ = new int[bmp_.length];
                 }
 
-                Map<String, String> queryParameters = getQueryParams(route);
-                if (!queryParameters.isEmpty()) {
-                    route = route.split("\\?")[0];
+                int index = codePoint >>> 6;
+                long bit = 1L << codePoint;
+                if (bmp_[index] == 0) {
+                    dirty_[dirtyCount_++] = index;
                 }
 
-                if ("/".equals(route)) {
-                    sendHtmlFile(out, "index.html");
-                } else if ("/words.html".equals(route)) {
-                    sendHtmlFile(out, "words.html");
-                } else if ("/echo".equals(route)) {
+                boolean added = (bmp_[index] & bit) == 0;
+                bmp_[index] |= bit;
+                return added;
+            }
+
+            if (supplementary_ == null) {
+                supplementary_ = new HashSet<>();
+            }
+            return supplementary_.add(codePoint);
+        }
 
-                    // Example:
-                    // Echos the value of the "word" query parameter right back to the browser.
+    }
 
-                    // The URL calling this code looks like this:
-                    // http://localhost:4444/echo?word=someword
+    // Occurrence counts and first positions of code points: plain int arrays for Latin-1, open addressing keyed by
+    // code point above it, so nothing is boxed.
+    private static final class CodePointHistogram {
 
-                    // Get the "word" query parameter on the URL.
-                    // E.g., ?word=cat then the word variable value would be "cat"
-                    String word = queryParameters.get("word");
+        private final int[] latin1Counts_ = new int[0x100];
+        private final int[] latin1First_ = new int[0x100];
 
-                    // Echo the input string back to the browser.
-                    sendString(out, word);
+        // Keys above Latin-1 are never 0, so 0 marks an empty slot
+        private int[] keys_ = new int[16];
+        private int[] counts_ = new int[16];
+        private int[] first_ = new int[16];
+        private int size_;
 
-                } else if ("/palindrome".equals(route)) {
+        // Each code point is recorded here when it is seen for the second time
+        private long[] duplicates_ = new long[16];
+        private int duplicateCount_;
 
-                    // http://localhost:4444/palindrome?word=someword
+        void add(int codePoint, int position) {
+            if (codePoint < 0x100) {
+                int count = ++latin1Counts_[codePoint];
+                if (count == 1) {
+                    latin1First_[codePoint] = position;
+                } else if (count == 2) {
+                    addDuplicate(latin1First_[codePoint], codePoint);
+                }
+                return;
+            }
 
-                    String word = queryParameters.get("word");
+            int slot = slot(codePoint);
+            if (keys_[slot] != 0) {
+                if (++counts_[slot] == 2) {
+                    addDuplicate(first_[slot], codePoint);
+                }
+                return;
+            }
 
-                    if (isPalindrome(word)) {
-                        sendString(out, "yes");
-                    } else {
-                        sendString(out, "no");
-                    }
+            keys_[slot] = codePoint;
+            counts_[slot] = 1;
+            first_[slot] = position;
+            if (++size_ * 2 > keys_.length) {
+                resize();
+            }
+        }
 
-                } else if ("/duplicates".equals(route)) {
+        int count(int codePoint) {
+            return codePoint < 0x100 ? latin1Counts_[codePoint] : counts_[slot(codePoint)];
+        }
 
-                    // http://localhost:4444/duplicates?word=someword
+        // Code points seen more than once, each packed as (first position << 21 | code point) and sorted, so
+        // they come out in order of first occurrence
+        long[] duplicates() {
+            long[] duplicates = Arrays.copyOf(duplicates_, duplicateCount_);
+            Arrays.sort(duplicates);
+            return duplicates;
+        }
 
-                    String word = queryParameters.get("word");
+        private void addDuplicate(int first, int codePoint) {
+            if (duplicateCount_ == duplicates_.length) {
+                duplicates_ = Arrays.copyOf(duplicates_, duplicateCount_ * 2);
+            }
+            duplicates_[duplicateCount_++] = (long) first << 21 | codePoint;
+        }
 
-                    if (containsDuplicateCharacters(word)) {
-                        sendString(out, "yes");
-                    } else {
-                        sendString(out, "no");
-                    }
+        // Linear probing from a Fibonacci hash of the code point; the table is kept at most half full
+        private int slot(int codePoint) {
+            int mask = keys_.length - 1;
+            int slot = (codePoint * 0x9E3779B9) >>> (Integer.numberOfLeadingZeros(mask));
+            while (keys_[slot] != 0 && keys_[slot] != codePoint) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
 
-                } else if ("/reverse".equals(route)) {
+        private void resize() {
+            int[] keys = keys_;
+            int[] counts = counts_;
+            int[] first = first_;
 
-                    // http://localhost:4444/reverse?word=someword
+            keys_ = new int[keys.length * 2];
+            counts_ = new int[keys.length * 2];
+            first_ = new int[keys.length * 2];
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != 0) {
+                    int slot = slot(keys[i]);
+                    keys_[slot] = keys[i];
+                    counts_[slot] = counts[i];
+                    first_[slot] = first[i];
+                }
+            }
+        }
+
+    }
 
-                    String word = queryParameters.get("word");
+    // An eertree (palindromic tree), built one char at a time: one node per distinct palindromic substring, at most
+    // n for n chars.  Edges are looked up in a hash table, so building it is O(n) whatever the alphabet.
+    private static final class PalindromeTree {
 
-                    // Send back the reversed word.
-                    sendString(out, reverseWord(word));
+        // Node 0 is the imaginary root of length -1 and node 1 the empty palindrome.  Neither is ever a child, so 0
+        // also means "none" in edgeChild_ and the return value of next().
+        private final String word_;
+        private final int[] length_;
+        private final int[] suffixLink_;    // longest proper palindromic suffix
+        private final int[] suffixCount_;   // palindromic suffixes, this palindrome included
+        private final int[] end_;           // where the palindrome first ends in word_
 
-                } else {
-                    // 404 Not Found
-                    send404NotFound(out);
+        // Edges keyed by (parent << 16 | char), with open addressing; a child of 0 marks an empty slot
+        private long[] edgeKeys_ = new long[16];
+        private int[] edgeChild_ = new int[16];
+        private int nodes_ = 2;
+        private int suffix_ = 1;            // longest palindromic suffix of what has been added so far
+        private int position_;
+        private long count_;
+
+        PalindromeTree(String word) {
+            int capacity = word.length() + 2;
+            word_ = word;
+            length_ = new int[capacity];
+            suffixLink_ = new int[capacity];
+            suffixCount_ = new int[capacity];
+            end_ = new int[capacity];
+
+            length_[0] = -1;
+        }
+
+        boolean hasNext() {
+            return position_ < word_.length();
+        }
+
+        // Adds the next char and returns the node of the new palindrome it ends, or 0 if it ends none
+        int next() {
+            int i = position_++;
+            char c = word_.charAt(i);
+
+            // Find the longest palindromic suffix that c can extend on both sides
+            int parent = suffix_;
+            while (!extendsWith(parent, i, c)) {
+                parent = suffixLink_[parent];
+            }
+
+            int node = child(parent, c);
+            if (node != 0) {
+                suffix_ = node;
+                count_ += suffixCount_[node];
+                return 0;
+            }
+
+            node = nodes_++;
+            length_[node] = length_[parent] + 2;
+            end_[node] = i;
+
+            if (length_[node] == 1) {
+                suffixLink_[node] = 1;
+            } else {
+                int link = suffixLink_[parent];
+                while (!extendsWith(link, i, c)) {
+                    link = suffixLink_[link];
                 }
-            } catch (Exception e) {
-                System.err.println(e.getMessage());
+                suffixLink_[node] = child(link, c);
             }
+            suffixCount_[node] = suffixCount_[suffixLink_[node]] + 1;
+
+            int slot = edgeSlot((long) parent << 16 | c);
+            edgeKeys_[slot] = (long) parent << 16 | c;
+            edgeChild_[slot] = node;
+            if ((nodes_ - 2) * 2 > edgeKeys_.length) {
+                resizeEdges();
+            }
+
+            suffix_ = node;
+            count_ += suffixCount_[node];
+            return node;
         }
 
-        private static Map<String, String> getQueryParams(String url) {
-            Map<String, String> params = new HashMap<>();
-            String[] urlParts = url.split("\\?");
-            if (urlParts.length > 1) {
-                String query = urlParts[1];
-                for (String param : query.split("&")) {
-                    String[] pair = param.split("=");
-                    String key = pair[0];
-                    String value = "";
-                    if (pair.length > 1) {
-                        value = pair[1];
-                    }
+        // Palindromic substrings of what has been added so far, every occurrence counted
+        long count() {
+            return count_;
+        }
+
+        int distinct() {
+            return nodes_ - 2;
+        }
+
+        String palindrome(int node) {
+            return word_.substring(end_[node] - length_[node] + 1, end_[node] + 1);
+        }
+
+        // Whether the palindrome 'node', ending just before i, has c in front of it to match c at i
+        private boolean extendsWith(int node, int i, char c) {
+            int before = i - length_[node] - 1;
+            return before >= 0 && word_.charAt(before) == c;
+        }
+
+        private int child(int node, char c) {
+            return edgeChild_[edgeSlot((long) node << 16 | c)];
+        }
+
+        // Linear probing from a Fibonacci hash of the key; the table is kept at most half full
+        private int edgeSlot(long key) {
+            int mask = edgeKeys_.length - 1;
+            int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> Long.numberOfLeadingZeros(mask));
+            while (edgeChild_[slot] != 0 && edgeKeys_[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
 
-                    params.put(key, value);
+        private void resizeEdges() {
+            long[] keys = edgeKeys_;
+            int[] children = edgeChild_;
+
+            edgeKeys_ = new long[keys.length * 2];
+            edgeChild_ = new int[keys.length * 2];
+            for (int i = 0; i < keys.length; i++) {
+                if (children[i] != 0) {
+                    int slot = edgeSlot(keys[i]);
+                    edgeKeys_[slot] = keys[i];
+                    edgeChild_[slot] = children[i];
                 }
             }
-            return params;
         }
 
-        private static void sendString(PrintStream out, String text) {
-            out.print("HTTP/1.0 200 OK\r\n");
-            out.print("Content-Type: text/plain; charset=utf-8");
-            out.print(CRLF);
-            out.print(CRLF);
+    }
+
+    // Optional SIMD kernels (VectorKernels.java).  They only pay off once a word fills many vector registers.
+    private static final int VECTOR_THRESHOLD = 16384;
+    private static final TextKernels VECTOR_KERNELS = loadVectorKernels();
+
+    interface TextKernels {
+
+        boolean isPalindrome(String word);
 
-            out.print(text);
+        String reverseWord(String word);
+
+    }
+
+    // Null unless VectorKernels was compiled and the JVM was started with --add-modules jdk.incubator.vector
+    // (without the module, loading it fails with NoClassDefFoundError)
+    private static TextKernels loadVectorKernels() {
+        try {
+            return (TextKernels) Class.forName("VectorKernels").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
         }
+    }
 
-        private static void sendHtmlFile(PrintStream out, String fileName) throws Exception {
-            out.print("HTTP/1.0 200 OK\r\n");
-            out.print("Content-Type: text/html; charset=utf-8");
-            out.print(CRLF);
-            out.print(CRLF);
+    // ------------------------------------------------------------------------------
+    // ------------------------------------------------------------------------------
+
+    public static void main(String... args) throws Exception {
+        // Pick the server engine at startup, e.g. java -Dhavalo.engine=nio -cp target HavaloCodingChallenge
+        String engine = System.getProperty("havalo.engine", "blocking");
+
+        if (VECTOR_KERNELS != null) {
+            System.out.println("Using Vector API kernels for long words.");
+        }
+
+        if ("nio".equals(engine)) {
+            int eventLoops = Integer.getInteger("havalo.eventLoops", Runtime.getRuntime().availableProcessors());
+            new NioWebServer(4444, eventLoops).start();
+        } else {
+            // Run each blocking Router on a platform thread (default), a bounded worker pool or, on Java 21+, a virtual thread
+            String threads = System.getProperty("havalo.threads", "platform");
+            new WebServer(4444, WebServer.newConnectionExecutor(threads)).start();
+        }
+    }
+
+    private static class WebServer {
+
+        private int port_;
+        private Executor executor_;
 
-            try (FileInputStream fis = new FileInputStream(fileName)) {
-                byte[] buffer = new byte[4096];
-                int n;
-                while ((n = fis.read(buffer)) > 0) {
-                    out.write(buffer, 0, n);
+        public WebServer(int port, Executor executor) {
+            port_ = port;
+            executor_ = executor;
+        }
+
+        public static Executor newConnectionExecutor(String threads) throws Exception {
+            if ("virtual".equals(threads)) {
+                // Looked up reflectively so the file still compiles with JDKs older than 21
+                try {
+                    return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                } catch (NoSuchMethodException e) {
+                    throw new IllegalStateException("Virtual threads require Java 21 or newer", e);
                 }
             }
+
+            if ("pool".equals(threads)) {
+                // Fixed workers behind a bounded queue; once the queue is full execute() throws and start() sheds the connection
+                int poolSize = Integer.getInteger("havalo.poolSize", 2 * Runtime.getRuntime().availableProcessors());
+                int queueSize = Integer.getInteger("havalo.queueSize", 1024);
+
+                ThreadPoolExecutor pool = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<>(queueSize), command -> {
+                            Thread thread = new Thread(command);
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+                Metrics.workerPool = pool;
+                return pool;
+            }
+
+            // One daemon platform thread per connection
+            return command -> {
+                Thread thread = new Thread(command);
+                thread.setDaemon(true);
+                thread.start();
+            };
         }
 
-        private static void send404NotFound(PrintStream out) {
-            out.print("HTTP/1.0 404 Not Found\r\n");
-            out.print("Content-Type: text/html; charset=utf-8");
-            out.print(CRLF);
-            out.print(CRLF);
+        public void start() throws Exception {
+            // Accepting through a (blocking) channel gives each Socket a SocketChannel for zero-copy file sends
+            ServerSocketChannel serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(port_));
+            System.out.println("\nWeb-server started! ... press Ctrl-C to quit.");
+            System.out.println("Load http://localhost:4444 in your web-browser.");
+
+            while (true) {
+                Socket s = serverChannel.accept().socket(); // Wait for a browser to connect
+                try {
+                    executor_.execute(new Router(s)); // Process the request on a separate thread
+                } catch (RejectedExecutionException e) {
+                    Metrics.rejectedConnections.incrementAndGet();
+                    Router.sendServiceUnavailable(s); // Overloaded: answer right away instead of queueing more work
+                }
+            }
+        }
+
+    }
+
+    // Alternative engine: a single acceptor hands connections to a small, fixed set of selector-driven
+    // event loops, so no thread is created per connection.
+    private static class NioWebServer {
+
+        private int port_;
+        private int eventLoopCount_;
+
+        public NioWebServer(int port, int eventLoopCount) {
+            port_ = port;
+            eventLoopCount_ = Math.max(1, eventLoopCount);
+        }
+
+        public void start() throws Exception {
+            ServerSocketChannel serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(port_));
+
+            EventLoop[] eventLoops = new EventLoop[eventLoopCount_];
+            for (int i = 0; i < eventLoops.length; i++) {
+                eventLoops[i] = new EventLoop(i);
+                eventLoops[i].start();
+            }
+
+            System.out.println("\nWeb-server started (NIO, " + eventLoops.length + " event loops)! ... press Ctrl-C to quit.");
+            System.out.println("Load http://localhost:4444 in your web-browser.");
+
+            int next = 0;
+            while (true) {
+                SocketChannel channel = serverChannel.accept(); // Wait for a browser to connect
+                eventLoops[next].register(channel); // Round-robin the connection onto an event loop
+                next = (next + 1) % eventLoops.length;
+            }
+        }
+
+    }
+
+    private static class EventLoop extends Thread {
 
-            out.print("<html><body><h2>404 Not Found</h2></body></html>");
+        private static final int MAX_REQUEST_HEAD = 8192;
+        private static final int MAX_BUFFERED_REQUEST = Integer.getInteger("havalo.maxBufferedRequest", 16 << 20);
+        private static final int MAX_STREAM_BUFFER = Integer.getInteger("havalo.maxStreamBuffer", 1 << 20);
+
+        // Slow routes run here, shared by every loop, so one large request never stalls a loop's other connections
+        private static final Executor WORKERS = Executors.newFixedThreadPool(
+                Integer.getInteger("havalo.workers", Runtime.getRuntime().availableProcessors()), task -> {
+                    Thread thread = new Thread(task, "nio-worker");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        private final Selector selector_;
+        private final Queue<SocketChannel> pending_ = new ConcurrentLinkedQueue<>();
+        private final Queue<SelectionKey> ready_ = new ConcurrentLinkedQueue<>(); // Connections with worker output
+        private long nextIdleSweep_;
+
+        public EventLoop(int id) throws IOException {
+            super("event-loop-" + id);
+            selector_ = Selector.open();
+            setDaemon(true);
+        }
+
+        // Called from the acceptor thread; the channel is registered on this loop's own thread
+        public void register(SocketChannel channel) {
+            pending_.add(channel);
+            selector_.wakeup();
+        }
+
+        public void run() {
+            while (true) {
+                try {
+                    selector_.select(Router.IDLE_TIMEOUT_MILLIS);
+
+                    SocketChannel channel;
+                    while ((channel = pending_.poll()) != null) {
+                        channel.configureBlocking(false);
+                        channel.register(selector_, SelectionKey.OP_READ, new Connection());
+                    }
+
+                    SelectionKey ready;
+                    while ((ready = ready_.poll()) != null) {
+                        try {
+                            if (ready.isValid()) {
+                                write(ready);
+                            }
+                        } catch (Throwable e) {
+                            System.err.println(e);
+                            close(ready);
+                        }
+                    }
+
+                    Iterator<SelectionKey> keys = selector_.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+
+                        try {
+                            if (key.isReadable()) {
+                                read(key);
+                            } else if (key.isWritable()) {
+                                write(key);
+                            }
+                        } catch (Throwable e) {
+                            // Errors too (OutOfMemoryError, StackOverflowError): only this connection is lost, never
+                            // the loop and every other connection on it
+                            System.err.println(e);
+                            close(key);
+                        }
+                    }
+
+                    closeIdleConnections();
+                } catch (IOException e) {
+                    System.err.println(e.getMessage());
+                }
+            }
+        }
+
+        private void read(SelectionKey key) throws Exception {
+            SocketChannel channel = (SocketChannel) key.channel();
+            Connection connection = (Connection) key.attachment();
+
+            if (channel.read(connection.in) < 0) {
+                close(key);
+                return;
+            }
+
+            connection.lastActive = System.currentTimeMillis();
+            process(key);
+        }
+
+        // Route every complete request head that is buffered (pipelined requests arrive together), then
+        // switch to writing all of their responses, in order, with a single write
+        private void process(SelectionKey key) throws Exception {
+            Connection connection = (Connection) key.attachment();
+
+            ByteArrayOutputStream response = connection.response;
+            boolean keepAlive = true;
+            int headEnd;
+
+            try (PrintStream out = new PrintStream(response)) {
+                while (keepAlive && (headEnd = connection.headEnd()) >= 0) {
+                    Request request = connection.request;
+                    request.fileSender = connection;
+                    byte[] bytes = connection.in.array();
+                    request.parse(bytes, headEnd, new ByteArrayInputStream(bytes, headEnd, connection.in.position() - headEnd));
+                    if (request.chunked()) {
+                        throw new IOException("Chunked request bodies are not supported by the NIO engine");
+                    }
+
+                    // Unlike the blocking engine the whole body is buffered before the request is routed
+                    long requestLength = headEnd + request.contentLength();
+                    if (requestLength > connection.in.position()) {
+                        if (requestLength > MAX_BUFFERED_REQUEST) {
+                            throw new IOException("Request exceeds " + MAX_BUFFERED_REQUEST + " bytes");
+                        }
+                        connection.ensureCapacity((int) requestLength);
+                        if (!connection.continued && request.expectsContinue()) {
+                            out.print(Router.CONTINUE);
+                            connection.continued = true;
+                        }
+                        break;
+                    }
+
+                    request.log(System.out); // Log the request
+
+                    if (Router.ROUTES.isSlow(request)) {
+                        startWorker(key, (int) requestLength);
+                        break;
+                    }
+
+                    Router.route(request, out);
+                    keepAlive = request.keepAlive();
+                    connection.consume((int) requestLength); // The request's bytes are overwritten from here on
+                }
+            }
+
+            connection.queueResponse();
+            if (connection.worker != null) {
+                // Nothing more is read until the worker's response has been sent
+                key.interestOps(0);
+                write(key);
+                return;
+            }
+            if (connection.out.isEmpty()) {
+                if (!connection.in.hasRemaining()) {
+                    throw new IOException("Request head exceeds " + MAX_REQUEST_HEAD + " bytes");
+                }
+                return;
+            }
+
+            connection.keepAlive = keepAlive;
+            key.interestOps(SelectionKey.OP_WRITE);
+            write(key);
+        }
+
+        // Answer the connection's current request on a worker thread; its output is handed back to this loop
+        private void startWorker(SelectionKey key, int requestLength) {
+            Connection connection = (Connection) key.attachment();
+            Request request = connection.request;
+            request.fileSender = Router::copyFile; // The connection's own queue belongs to this loop
+
+            WorkerOutput output = new WorkerOutput(requestLength, () -> {
+                ready_.add(key);
+                selector_.wakeup();
+            });
+            connection.worker = output;
+
+            WORKERS.execute(() -> {
+                boolean failed = true;
+                try {
+                    PrintStream out = new PrintStream(new BufferedOutputStream(output));
+                    Router.route(request, out);
+                    out.flush();
+                    failed = out.checkError();
+                } catch (Throwable e) {
+                    System.err.println(e);
+                } finally {
+                    output.finish(failed);
+                }
+            });
+        }
+
+        // Write as much of the response as the socket accepts; once it has all been sent either close
+        // the connection or go back to reading the next request
+        private void write(SelectionKey key) throws Exception {
+            SocketChannel channel = (SocketChannel) key.channel();
+            Connection connection = (Connection) key.attachment();
+
+            while (true) {
+                boolean done = connection.worker == null;
+                if (connection.out.isEmpty() && !done) {
+                    done = connection.worker.drainTo(connection.out);
+                }
+                if (connection.out.isEmpty()) {
+                    if (done) {
+                        break;
+                    }
+                    key.interestOps(0); // The worker wakes the loop up when it has more
+                    return;
+                }
+
+                // Gathering write of every queued buffer, including any memory-mapped files
+                if (channel.write(connection.out.toArray(new ByteBuffer[0])) > 0) {
+                    connection.lastActive = System.currentTimeMillis();
+                }
+                while (!connection.out.isEmpty() && !connection.out.peek().hasRemaining()) {
+                    connection.out.poll();
+                }
+                if (!connection.out.isEmpty()) {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+
+            WorkerOutput worker = connection.worker;
+            if (worker != null) {
+                if (worker.failed()) {
+                    close(key);
+                    return;
+                }
+                connection.worker = null;
+                connection.keepAlive = connection.request.keepAlive();
+                connection.consume(worker.requestLength);
+            }
+
+            if (!connection.keepAlive) {
+                close(key);
+                return;
+            }
+
+            connection.lastActive = System.currentTimeMillis();
+            key.interestOps(SelectionKey.OP_READ);
+            process(key); // The next request may already be buffered
+        }
+
+        // Close keep-alive connections that have been waiting for a request longer than the idle timeout, and
+        // those that stopped reading a worker's response (the worker is waiting for them)
+        private void closeIdleConnections() {
+            long now = System.currentTimeMillis();
+            if (now < nextIdleSweep_) {
+                return;
+            }
+            nextIdleSweep_ = now + 1000;
+
+            for (SelectionKey key : selector_.keys()) {
+                Connection connection = (Connection) key.attachment();
+                if (connection != null && (connection.worker == null) == connection.out.isEmpty()
+                        && now - connection.lastActive > Router.IDLE_TIMEOUT_MILLIS) {
+                    close(key);
+                }
+            }
+        }
+
+        private static void close(SelectionKey key) {
+            Connection connection = (Connection) key.attachment();
+            if (connection != null && connection.worker != null) {
+                connection.worker.abort();
+            }
+            key.cancel();
+            try {
+                key.channel().close();
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+
+        private static class Connection implements FileSender {
+
+            final Request request = new Request();
+            final ByteArrayOutputStream response = new ByteArrayOutputStream();
+            final Queue<ByteBuffer> out = new ArrayDeque<>(); // Pending writes, in order
+            ByteBuffer in = ByteBuffer.allocate(MAX_REQUEST_HEAD);
+            boolean keepAlive;
+            boolean continued; // "100 Continue" was sent for the request being buffered
+            WorkerOutput worker; // Set while a worker answers the current request
+            long lastActive = System.currentTimeMillis();
+
+            // Files are memory-mapped and queued behind the response bytes written so far; the selector loop
+            // then writes them to the socket straight from the page cache
+            public void sendFile(PrintStream headers, FileChannel file, long size) throws IOException {
+                headers.flush();
+                queueResponse();
+                out.add(file.map(FileChannel.MapMode.READ_ONLY, 0, size));
+            }
+
+            // Off-heap buffers are queued the same way
+            public void sendBuffer(PrintStream headers, ByteBuffer buffer) {
+                headers.flush();
+                queueResponse();
+                out.add(buffer);
+            }
+
+            void queueResponse() {
+                if (response.size() > 0) {
+                    out.add(ByteBuffer.wrap(response.toByteArray()));
+                    response.reset();
+                }
+            }
+
+            // Index just past the blank line ending the request head, or -1 if it has not fully arrived
+            int headEnd() {
+                byte[] bytes = in.array();
+
+                // Stray blank lines between requests are dropped first so they are not mistaken for a head
+                int start = 0;
+                while (start < in.position() && (bytes[start] == '\r' || bytes[start] == '\n')) {
+                    start++;
+                }
+                if (start > 0) {
+                    consume(start);
+                    bytes = in.array();
+                }
+
+                for (int i = 0; i < in.position(); i++) {
+                    if (bytes[i] == '\n') {
+                        if (i + 1 < in.position() && bytes[i + 1] == '\n') {
+                            return i + 2;
+                        }
+                        if (i + 2 < in.position() && bytes[i + 1] == '\r' && bytes[i + 2] == '\n') {
+                            return i + 3;
+                        }
+                    }
+                }
+                return -1;
+            }
+
+            // Drop a handled request, keeping any bytes of the next request behind it
+            void consume(int length) {
+                continued = false;
+                in.flip();
+                in.position(length);
+
+                if (in.capacity() > MAX_REQUEST_HEAD && in.remaining() <= MAX_REQUEST_HEAD) {
+                    in = ByteBuffer.allocate(MAX_REQUEST_HEAD).put(in); // Shrink back after a large body
+                } else {
+                    in.compact();
+                }
+            }
+
+            void ensureCapacity(int capacity) {
+                if (in.capacity() < capacity) {
+                    in.flip();
+                    in = ByteBuffer.allocate(capacity).put(in);
+                }
+            }
+
+        }
+
+        // A worker's response; written on the worker thread and drained to the socket by the event loop.  Once
+        // MAX_STREAM_BUFFER bytes are waiting the worker is paused until the socket catches up.
+        private static class WorkerOutput extends OutputStream {
+
+            final int requestLength;
+            private final Runnable ready_;
+            private final Queue<ByteBuffer> chunks_ = new ArrayDeque<>();
+            private long pending_;
+            private boolean finished_;
+            private boolean failed_;
+            private boolean aborted_;
+
+            WorkerOutput(int requestLength, Runnable ready) {
+                this.requestLength = requestLength;
+                ready_ = ready;
+            }
+
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            public void write(byte[] b, int off, int len) throws IOException {
+                synchronized (this) {
+                    while (pending_ >= MAX_STREAM_BUFFER && !aborted_) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            throw new InterruptedIOException();
+                        }
+                    }
+                    if (aborted_) {
+                        throw new IOException("Connection closed");
+                    }
+                    chunks_.add(ByteBuffer.wrap(Arrays.copyOfRange(b, off, off + len)));
+                    pending_ += len;
+                }
+                ready_.run();
+            }
+
+            void finish(boolean failed) {
+                synchronized (this) {
+                    finished_ = true;
+                    failed_ = failed;
+                }
+                ready_.run();
+            }
+
+            // Move everything written so far to 'out'; true once the worker has finished, so nothing more follows
+            synchronized boolean drainTo(Queue<ByteBuffer> out) {
+                out.addAll(chunks_);
+                chunks_.clear();
+                pending_ = 0;
+                notifyAll();
+                return finished_;
+            }
+
+            synchronized boolean failed() {
+                return failed_;
+            }
+
+            // The connection was closed; the worker's further writes fail
+            synchronized void abort() {
+                aborted_ = true;
+                notifyAll();
+            }
+
+        }
+
+    }
+
+    private static class Router implements Runnable {
+
+        private static final String CRLF = "\r\n";
+        // Interim response for requests sent with "Expect: 100-continue"
+        private static final String CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n";
+        private static final int RETRY_AFTER_SECONDS = 1;
+        private static final int IDLE_TIMEOUT_MILLIS = Integer.getInteger("havalo.idleTimeout", 5000);
+        private static final int POOL_IDLE_POLL_MILLIS = 50;
+        private static final int COMPRESSION_THRESHOLD = Integer.getInteger("havalo.compressionThreshold", 1024);
+        private static final int MAX_TEXT_BODY = Integer.getInteger("havalo.maxTextBody", 16 << 20);
+        private static final int MAX_BATCH_LINE = Integer.getInteger("havalo.maxBatchLine", 64 << 10);
+
+        private static final StaticFileCache STATIC_FILES = new StaticFileCache(Paths.get(""));
+
+        // Handlers are registered once here; route() looks them up by path without touching this list.  Those that
+        // read whole request bodies or stream large responses are registered as slow.
+        private static final RouteTable ROUTES = new RouteTable();
+
+        // The same words are submitted over and over, so the word handlers' results are cached
+        static final ResultCache RESULTS = new ResultCache(Long.getLong("havalo.resultCacheBytes", 16 << 20));
+
+        // Large /reverse results can be kept off the heap instead; disabled unless given a size
+        static final OffHeapCache OFF_HEAP_RESULTS = new OffHeapCache(Long.getLong("havalo.offHeapCacheBytes", 0));
+
+        static {
+            ROUTES.register("/", (request, out) -> sendHtmlFile(request, out, "index.html"));
+            ROUTES.register("/words.html", (request, out) -> sendHtmlFile(request, out, "words.html"));
+
+            ROUTES.register("/echo", (request, out) -> {
+
+                // Example:
+                // Echos the value of the "word" query parameter right back to the browser.
+
+                // The URL calling this code looks like this:
+                // http://localhost:4444/echo?word=someword
+
+                // Get the "word" query parameter on the URL.
+                // E.g., ?word=cat then the word variable value would be "cat"
+                String word = request.queryParameter("word");
+
+                // Echo the input string back to the browser.
+                sendString(request, out, word);
+            });
+
+            // http://localhost:4444/metrics
+            ROUTES.register("/metrics", (request, out) -> sendString(request, out, Metrics.report()));
+
+            ROUTES.register("/palindrome", (request, out) -> {
+
+                // http://localhost:4444/palindrome?word=someword
+                // http://localhost:4444/palindrome?word=some+phrase&mode=phrase
+
+                String word = wordParameter(request);
+                String mode = request.queryParameter("mode") != null ? request.queryParameter("mode") : "char";
+
+                sendString(request, out, RESULTS.get("/palindrome", mode, word, w -> palindromeAnswer(mode, w)));
+            });
+
+            ROUTES.register("/duplicates", (request, out) -> {
+
+                // http://localhost:4444/duplicates?word=someword
+                // http://localhost:4444/duplicates?word=someword&detail=true
+
+                String word = wordParameter(request);
+
+                // Which characters repeat, how often, and where each first appears
+                if ("true".equals(request.queryParameter("detail"))) {
+                    sendJson(request, out, RESULTS.get("/duplicates", "detail", word,
+                            HavaloCodingChallenge::duplicateCharacterReport));
+                } else {
+                    sendString(request, out, RESULTS.get("/duplicates", "", word,
+                            w -> containsDuplicateCharacters(w) ? "yes" : "no"));
+                }
+            });
+
+            ROUTES.register("/reverse", (request, out) -> {
+
+                // http://localhost:4444/reverse?word=someword
+                // http://localhost:4444/reverse?word=someword&mode=codepoint|grapheme
+
+                String word = wordParameter(request);
+                String mode = request.queryParameter("mode") != null ? request.queryParameter("mode") : "char";
+
+                // Large results may live off the heap, and are then sent straight from there
+                if (OFF_HEAP_RESULTS.accepts(word)) {
+                    ByteBuffer reversed = OFF_HEAP_RESULTS.get(mode, word);
+                    if (reversed == null) {
+                        String result = reverse(mode, word);
+                        reversed = OFF_HEAP_RESULTS.put(mode, word, result);
+                        if (reversed == null) {
+                            sendString(request, out, result);
+                            return;
+                        }
+                    }
+                    sendBuffer(request, out, "text/plain; charset=utf-8", reversed);
+                    return;
+                }
+
+                // Send back the reversed word.
+                sendString(request, out, RESULTS.get("/reverse", mode, word, w -> reverse(mode, w)));
+            });
+
+            ROUTES.register("/analyze", (request, out) -> {
+
+                // http://localhost:4444/analyze?word=someword
+
+                String word = wordParameter(request);
+
+                // All three results in one JSON response
+                sendJson(request, out, RESULTS.get("/analyze", "", word, HavaloCodingChallenge::analyzeWord));
+            });
+
+            ROUTES.register("/longest-palindrome", (request, out) -> {
+
+                // http://localhost:4444/longest-palindrome?word=someword
+                // curl --data-binary @text.txt http://localhost:4444/longest-palindrome
+
+                // Inputs too large for a URL are sent as a UTF-8 POST body
+                String word = request.methodIs("POST") ? readText(request) : wordParameter(request);
+
+                sendString(request, out, longestPalindrome(word));
+            }, true);
+
+            ROUTES.register("/palindromes/count", (request, out) -> {
+
+                // http://localhost:4444/palindromes/count?word=someword
+                // curl --data-binary @text.txt http://localhost:4444/palindromes/count
+
+                String word = request.methodIs("POST") ? readText(request) : wordParameter(request);
+
+                // Every occurrence, and distinct palindromes
+                PalindromeTree tree = new PalindromeTree(word);
+                while (tree.hasNext()) {
+                    tree.next();
+                }
+                sendJson(request, out, "{\"count\":" + tree.count() + ",\"distinct\":" + tree.distinct() + "}");
+            }, true);
+
+            ROUTES.register("/palindromes/list", (request, out) -> {
+
+                // http://localhost:4444/palindromes/list?word=someword
+                // curl --data-binary @text.txt http://localhost:4444/palindromes/list
+
+                String word = request.methodIs("POST") ? readText(request) : wordParameter(request);
+
+                // Distinct palindromes in the order they first end in the word, one JSON string per line
+                sendPalindromeList(request, out, word);
+            }, true);
+
+            // curl --data-binary @words.txt http://localhost:4444/batch
+            // One word per line in the request body, one JSON result per line in the response
+            ROUTES.register("/batch", (request, out) -> sendBatch(request, out), true);
+        }
+
+        // The "word" query parameter; without it the request is answered with 400 Bad Request
+        private static String wordParameter(Request request) {
+            String word = request.queryParameter("word");
+            if (word == null) {
+                throw new IllegalArgumentException("Missing word parameter");
+            }
+            return word;
+        }
+
+        // By default every char counts; phrase ignores punctuation, spaces and case
+        private static String palindromeAnswer(String mode, String word) {
+            switch (mode) {
+                case "char":
+                    return isPalindrome(word) ? "yes" : "no";
+                case "phrase":
+                    return isPhrasePalindrome(word) ? "yes" : "no";
+                default:
+                    throw new IllegalArgumentException("Unknown palindrome mode: " + mode);
+            }
+        }
+
+        // By default chars are reversed one by one; codepoint keeps surrogate pairs together and grapheme keeps each
+        // user-perceived character (e.g. a letter and its accent)
+        private static String reverse(String mode, String word) {
+            switch (mode) {
+                case "char":
+                    return reverseWord(word);
+                case "codepoint":
+                    return reverseCodePoints(word);
+                case "grapheme":
+                    return reverseGraphemes(word);
+                default:
+                    throw new IllegalArgumentException("Unknown reverse mode: " + mode);
+            }
+        }
+
+        private Socket socket_;
+
+        public Router(Socket s) {
+            socket_ = s;
+        }
+
+        // Read HTTP requests and respond until the client closes, asks to close, or goes idle
+        public void run() {
+            try (Socket s = socket_;
+                 InputStream in = new BufferedInputStream(s.getInputStream());
+                 PrintStream out = new PrintStream(new BufferedOutputStream(s.getOutputStream()))) {
+
+                s.setSoTimeout(IDLE_TIMEOUT_MILLIS);
+                // Responses go out in one flush, except files and off-heap bodies written after their headers,
+                // which must not wait on the client's delayed ACK
+                s.setTcpNoDelay(true);
+
+                Request request = new Request();
+                if (s.getChannel() != null) {
+                    request.fileSender = transferTo(s.getChannel());
+                }
+                while (request.read(in)) {
+                    request.log(System.out); // Log the request
+
+                    if (request.expectsContinue()) {
+                        out.print(CONTINUE);
+                        out.flush();
+                    }
+
+                    route(request, out);
+                    request.discardBody(); // Skip whatever the handler left unread before the next request
+
+                    // Pipelined requests are answered in order; flush once the input has nothing more
+                    // buffered so a burst of responses goes out together
+                    if (in.available() == 0) {
+                        out.flush();
+                    }
+
+                    if (!request.keepAlive() || !awaitNextRequest(s, in)) {
+                        break;
+                    }
+                }
+            } catch (SocketTimeoutException e) {
+                // Idle keep-alive connection, just close it
+            } catch (Exception e) {
+                System.err.println(e.getMessage());
+            }
+        }
+
+        // In pool mode an idle keep-alive connection holds a worker, so the next request is waited for in short
+        // slices and the connection is given up as soon as other connections are queued for a worker.  Returns
+        // false if the connection should be closed.
+        private static boolean awaitNextRequest(Socket s, InputStream in) throws IOException {
+            ThreadPoolExecutor pool = Metrics.workerPool;
+            if (pool == null || in.available() > 0) {
+                return true;
+            }
+
+            long deadline = System.currentTimeMillis() + IDLE_TIMEOUT_MILLIS;
+            s.setSoTimeout(POOL_IDLE_POLL_MILLIS);
+            try {
+                while (true) {
+                    in.mark(1);
+                    try {
+                        if (in.read() < 0) {
+                            return false; // Closed by the client
+                        }
+                        in.reset();
+                        return true;
+                    } catch (SocketTimeoutException e) {
+                        if (!pool.getQueue().isEmpty() || System.currentTimeMillis() >= deadline) {
+                            return false;
+                        }
+                    }
+                }
+            } finally {
+                s.setSoTimeout(IDLE_TIMEOUT_MILLIS);
+            }
+        }
+
+        // Dispatch a single request to its handler.  Shared by the blocking and NIO engines.
+        static void route(Request request, PrintStream out) throws Exception {
+            // GET requests, plus POST for /batch
+            if (!(request.methodIs("GET") || request.methodIs("POST")) || !request.hasTarget()) {
+                throw new FileNotFoundException(); // Bad request
+            }
+
+            Handler handler = ROUTES.lookup(request);
+            Path staticFile;
+            if (handler != null) {
+                try {
+                    handler.handle(request, out);
+                } catch (IllegalArgumentException e) {
+                    // An unknown mode or similar: answer it rather than dropping the connection
+                    send400BadRequest(out, e.getMessage());
+                }
+            } else if ((staticFile = STATIC_FILES.locate(request.path())) != null) {
+                sendStaticFile(request, out, staticFile);
+            } else {
+                // 404 Not Found
+                send404NotFound(out);
+            }
+        }
+
+        // Other assets next to words.html are sent from disk without passing through the Java heap
+        private static void sendStaticFile(Request request, PrintStream out, Path path) throws IOException {
+            try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+                long size = file.size();
+
+                out.print("HTTP/1.1 200 OK\r\n");
+                out.print("Content-Type: " + StaticFileCache.contentType(path));
+                out.print(CRLF);
+                out.print("Content-Length: " + size);
+                out.print(CRLF);
+                out.print(CRLF);
+
+                request.fileSender.sendFile(out, file, size);
+            }
+        }
+
+        // Blocking engine: flush the headers, then let the kernel copy the file to the socket (sendfile).  Off-heap
+        // buffers are written to the channel as they are.
+        private static FileSender transferTo(SocketChannel channel) {
+            return new FileSender() {
+                public void sendFile(PrintStream headers, FileChannel file, long size) throws IOException {
+                    headers.flush();
+                    long position = 0;
+                    while (position < size) {
+                        position += file.transferTo(position, size - position, channel);
+                    }
+                }
+
+                public void sendBuffer(PrintStream headers, ByteBuffer buffer) throws IOException {
+                    headers.flush();
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                }
+            };
+        }
+
+        // Fallback when no channel is available: copy through the output stream
+        static void copyFile(PrintStream out, FileChannel file, long size) throws IOException {
+            file.transferTo(0, size, Channels.newChannel(out));
+        }
+
+        private static void sendString(Request request, PrintStream out, String text) throws IOException {
+            sendText(request, out, "text/plain; charset=utf-8", text);
+        }
+
+        private static void sendJson(Request request, PrintStream out, String json) throws IOException {
+            sendText(request, out, "application/json; charset=utf-8", json);
+        }
+
+        // Bodies of at least COMPRESSION_THRESHOLD bytes are compressed when the client accepts it
+        private static void sendText(Request request, PrintStream out, String contentType, String text) throws IOException {
+            byte[] body = String.valueOf(text).getBytes(StandardCharsets.UTF_8);
+
+            String encoding = null;
+            if (body.length >= COMPRESSION_THRESHOLD) {
+                encoding = request.preferredEncoding();
+                if (encoding != null) {
+                    body = compress(body, encoding);
+                }
+            }
+
+            out.print("HTTP/1.1 200 OK\r\n");
+            out.print("Content-Type: " + contentType);
+            out.print(CRLF);
+            if (body.length >= COMPRESSION_THRESHOLD || encoding != null) {
+                out.print("Vary: Accept-Encoding");
+                out.print(CRLF);
+            }
+            if (encoding != null) {
+                out.print("Content-Encoding: " + encoding);
+                out.print(CRLF);
+            }
+            out.print("Content-Length: " + body.length);
+            out.print(CRLF);
+            out.print(CRLF);
+
+            out.write(body, 0, body.length);
+        }
+
+        // An off-heap UTF-8 body is handed to the engine as it is.  Unlike sendText it is never compressed, as that
+        // would mean copying it back onto the heap.
+        private static void sendBuffer(Request request, PrintStream out, String contentType, ByteBuffer body) throws IOException {
+            out.print("HTTP/1.1 200 OK\r\n");
+            out.print("Content-Type: " + contentType);
+            out.print(CRLF);
+            if (body.remaining() >= COMPRESSION_THRESHOLD) {
+                out.print("Vary: Accept-Encoding");
+                out.print(CRLF);
+            }
+            out.print("Content-Length: " + body.remaining());
+            out.print(CRLF);
+            out.print(CRLF);
+
+            request.fileSender.sendBuffer(out, body);
+        }
+
+        // Streams NDJSON results while the body is still arriving, so memory use does not depend on its size
+        private static void sendBatch(Request request, PrintStream out) throws IOException {
+            sendStream(request, out, "application/x-ndjson; charset=utf-8", writer -> {
+                BufferedReader in = new BufferedReader(new InputStreamReader(request.body, StandardCharsets.UTF_8));
+
+                StringBuilder line = new StringBuilder();
+                StringBuilder input = new StringBuilder();
+                int length;
+                while ((length = readLine(in, input, MAX_BATCH_LINE)) >= 0) {
+                    line.setLength(0);
+                    if (length > MAX_BATCH_LINE) {
+                        // The rest of the line was skipped; report it and carry on with the next one
+                        line.append("{\"error\":\"Line exceeds ").append(MAX_BATCH_LINE).append(" chars\"}\n");
+                        writer.append(line);
+                        continue;
+                    }
+
+                    String word = input.toString();
+                    line.append("{\"word\":");
+                    appendJsonString(line, word);
+                    line.append(",\"palindrome\":").append(isPalindrome(word));
+                    line.append(",\"duplicates\":").append(containsDuplicateCharacters(word));
+                    line.append(",\"reverse\":");
+                    appendJsonString(line, reverseWord(word));
+                    line.append("}\n");
+
+                    writer.append(line);
+                }
+            });
+        }
+
+        // Reads the next line into 'line' as BufferedReader.readLine does, but keeps no more than 'max' chars of it.
+        // Returns -1 at the end of the input, otherwise the line's length, or max + 1 if it was longer.
+        private static int readLine(BufferedReader in, StringBuilder line, int max) throws IOException {
+            line.setLength(0);
+            int length = 0;
+            int c;
+            while ((c = in.read()) >= 0) {
+                if (c == '\n') {
+                    return length;
+                }
+                if (c == '\r') {
+                    in.mark(1);
+                    if (in.read() != '\n') {
+                        in.reset();
+                    }
+                    return length;
+                }
+                if (length <= max) {
+                    if (length < max) {
+                        line.append((char) c);
+                    }
+                    length++;
+                }
+            }
+            return length > 0 ? length : -1;
+        }
+
+        // Streams each new distinct palindrome as a JSON string line as soon as the tree finds it
+        private static void sendPalindromeList(Request request, PrintStream out, String word) throws IOException {
+            sendStream(request, out, "application/x-ndjson; charset=utf-8", writer -> {
+                PalindromeTree tree = new PalindromeTree(word);
+
+                StringBuilder line = new StringBuilder();
+                while (tree.hasNext()) {
+                    int node = tree.next();
+                    if (node != 0) {
+                        line.setLength(0);
+                        appendJsonString(line, tree.palindrome(node));
+                        writer.append(line.append('\n'));
+                    }
+                }
+            });
+        }
+
+        // A response body of unknown length: chunked (and compressed if the client accepts it) for HTTP/1.1,
+        // terminated by closing the connection for HTTP/1.0
+        private static void sendStream(Request request, PrintStream out, String contentType, BodyWriter body) throws IOException {
+            boolean chunked = request.isHttp11();
+
+            // The output is compressed on the fly, between the writer and the chunk framing
+            String encoding = chunked ? request.preferredEncoding() : null;
+
+            out.print("HTTP/1.1 200 OK\r\n");
+            out.print("Content-Type: " + contentType);
+            out.print(CRLF);
+            out.print("Vary: Accept-Encoding");
+            out.print(CRLF);
+            if (encoding != null) {
+                out.print("Content-Encoding: " + encoding);
+                out.print(CRLF);
+            }
+            if (chunked) {
+                out.print("Transfer-Encoding: chunked");
+            } else {
+                out.print("Connection: close"); // HTTP/1.0 clients read until the connection closes
+            }
+            out.print(CRLF);
+            out.print(CRLF);
+
+            ChunkedOutputStream chunks = new ChunkedOutputStream(out);
+            OutputStream compressor = encoding != null ? compressor(chunks, encoding) : null;
+            Writer encoder = new OutputStreamWriter(compressor != null ? compressor : chunked ? chunks : out, StandardCharsets.UTF_8);
+
+            // PrintStream swallows write errors, so they are checked after each buffer; the body stops once the
+            // client is gone instead of being produced to the end
+            PrintStream response = out; // Shadowed by FilterWriter.out below
+            Writer writer = new BufferedWriter(new FilterWriter(encoder) {
+                public void write(char[] cbuf, int off, int len) throws IOException {
+                    super.write(cbuf, off, len);
+                    if (response.checkError()) {
+                        throw new IOException("Client disconnected");
+                    }
+                }
+            });
+
+            body.write(writer);
+
+            writer.flush();
+            if (compressor != null) {
+                compressor.close(); // Writes the compressed trailer; closing the chunk stream is a no-op
+            }
+            if (chunked) {
+                chunks.finish();
+            }
+        }
+
+        // Handlers that need the whole body at once read it here, up to MAX_TEXT_BODY bytes
+        private static String readText(Request request) throws IOException {
+            long length = request.chunked() ? 0 : request.contentLength();
+            if (length > MAX_TEXT_BODY) {
+                throw new IOException("Request body exceeds " + MAX_TEXT_BODY + " bytes");
+            }
+
+            ByteArrayOutputStream body = new ByteArrayOutputStream(length > 0 ? (int) length : 8192);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = request.body.read(buffer)) != -1) {
+                if (body.size() + read > MAX_TEXT_BODY) {
+                    throw new IOException("Request body exceeds " + MAX_TEXT_BODY + " bytes");
+                }
+                body.write(buffer, 0, read);
+            }
+
+            return body.toString("UTF-8");
+        }
+
+        // The complete response (headers and body) is prebuilt by the cache and sent with a single write
+        private static void sendHtmlFile(Request request, PrintStream out, String fileName) throws Exception {
+            byte[] response = STATIC_FILES.get(fileName).response(request);
+            out.write(response, 0, response.length);
+        }
+
+        static byte[] compress(byte[] body, String encoding) throws IOException {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 2 + 64);
+            try (OutputStream out = compressor(compressed, encoding)) {
+                out.write(body);
+            }
+            return compressed.toByteArray();
+        }
+
+        // "deflate" in HTTP is the zlib format, which is what DeflaterOutputStream writes by default
+        private static OutputStream compressor(OutputStream out, String encoding) throws IOException {
+            return "gzip".equals(encoding) ? new GZIPOutputStream(out) : new DeflaterOutputStream(out);
+        }
+
+        private static void send400BadRequest(PrintStream out, String message) {
+            byte[] body = String.valueOf(message).getBytes(StandardCharsets.UTF_8);
+
+            out.print("HTTP/1.1 400 Bad Request\r\n");
+            out.print("Content-Type: text/plain; charset=utf-8");
+            out.print(CRLF);
+            out.print("Content-Length: " + body.length);
+            out.print(CRLF);
+            out.print(CRLF);
+
+            out.write(body, 0, body.length);
+        }
+
+        private static void send404NotFound(PrintStream out) {
+            byte[] body = "<html><body><h2>404 Not Found</h2></body></html>".getBytes(StandardCharsets.UTF_8);
+
+            out.print("HTTP/1.1 404 Not Found\r\n");
+            out.print("Content-Type: text/html; charset=utf-8");
+            out.print(CRLF);
+            out.print("Content-Length: " + body.length);
+            out.print(CRLF);
+            out.print(CRLF);
+
+            out.write(body, 0, body.length);
+        }
+
+        // Written from the accept loop when the worker queue is full, so it must never block for long
+        static void sendServiceUnavailable(Socket socket) {
+            try (Socket s = socket;
+                 PrintStream out = new PrintStream(new BufferedOutputStream(s.getOutputStream()))) {
+
+                byte[] body = "Server busy, please retry.".getBytes(StandardCharsets.UTF_8);
+
+                out.print("HTTP/1.1 503 Service Unavailable\r\n");
+                out.print("Retry-After: " + RETRY_AFTER_SECONDS + CRLF);
+                out.print("Connection: close" + CRLF);
+                out.print("Content-Type: text/plain; charset=utf-8");
+                out.print(CRLF);
+                out.print("Content-Length: " + body.length);
+                out.print(CRLF);
+                out.print(CRLF);
+
+                out.write(body, 0, body.length);
+                out.flush();
+
+                // Discard whatever part of the request already arrived so closing does not reset the connection
+                s.shutdownOutput();
+                InputStream in = s.getInputStream();
+                in.skip(in.available());
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+
+    }
+
+    // A request head parsed in place.  The raw bytes are kept and the method, path, query and header fields are
+    // located by offset, so routing a request only allocates the strings a handler actually asks for.  One instance
+    // is reused for every request on a connection.
+    private static class Request {
+
+        private static final int MAX_HEAD_LENGTH = 8192;
+
+        private byte[] buffer_; // Blocking engine: the head is read into this reusable buffer
+        private byte[] scratch_; // Percent-decoding space for query values
+        private byte[] discard_;
+        private final BoundedInputStream boundedBody_ = new BoundedInputStream(null, 0);
+
+        private byte[] head_;
+        private int headLength_;
+        private int methodEnd_;
+        private int targetStart_;
+        private int pathEnd_; // Index of the '?' or targetEnd_ when there is no query
+        private int targetEnd_;
+        private int versionStart_;
+        private int versionEnd_;
+        private int lineEnd_;
+        private int headersStart_;
+
+        // The request body, de-chunked or limited to Content-Length; empty when there is none
+        InputStream body;
+
+        // Set by the engine serving the connection
+        FileSender fileSender = Router::copyFile;
+
+        // Read the next request head from the connection; false if it ends before another request starts
+        boolean read(InputStream in) throws IOException {
+            int b;
+            do {
+                b = in.read(); // Tolerate stray blank lines between requests
+            } while (b == '\r' || b == '\n');
+            if (b < 0) {
+                return false;
+            }
+
+            if (buffer_ == null) {
+                buffer_ = new byte[MAX_HEAD_LENGTH];
+            }
+
+            int length = 0;
+            int lineStart = 0;
+            while (true) {
+                if (b < 0) {
+                    throw new EOFException("Request head ended early");
+                }
+                if (length == buffer_.length) {
+                    throw new IOException("Request head exceeds " + MAX_HEAD_LENGTH + " bytes");
+                }
+
+                buffer_[length++] = (byte) b;
+                if (b == '\n') {
+                    int lineLength = length - lineStart;
+                    if (lineLength == 1 || (lineLength == 2 && buffer_[lineStart] == '\r')) {
+                        break; // Blank line ends the head
+                    }
+                    lineStart = length;
+                }
+                b = in.read();
+            }
+
+            parse(buffer_, length, in);
+            return true;
+        }
+
+        // Locate the request line and header fields in bytes[0, length); the body follows in 'in'
+        void parse(byte[] bytes, int length, InputStream in) throws IOException {
+            head_ = bytes;
+            headLength_ = length;
+
+            int newline = indexOf('\n', 0, length);
+            headersStart_ = newline + 1;
+            lineEnd_ = newline > 0 && bytes[newline - 1] == '\r' ? newline - 1 : newline;
+
+            methodEnd_ = indexOf(' ', 0, lineEnd_);
+            targetStart_ = skipSpaces(methodEnd_);
+            targetEnd_ = indexOf(' ', targetStart_, lineEnd_);
+            pathEnd_ = indexOf('?', targetStart_, targetEnd_);
+            versionStart_ = skipSpaces(targetEnd_);
+            versionEnd_ = indexOf(' ', versionStart_, lineEnd_);
+
+            body = chunked() ? new ChunkedInputStream(in) : boundedBody_.reset(in, contentLength());
+        }
+
+        boolean hasTarget() {
+            return targetEnd_ > targetStart_;
+        }
+
+        boolean methodIs(String method) {
+            return regionEquals(0, methodEnd_, method, true);
+        }
+
+        boolean pathIs(String path) {
+            return regionEquals(targetStart_, pathEnd_, path, false);
+        }
+
+        String path() {
+            return new String(head_, targetStart_, pathEnd_ - targetStart_, StandardCharsets.ISO_8859_1);
+        }
+
+        // Same hash as RouteTable.hash(String), computed over the path bytes in place
+        int pathHash() {
+            int hash = RouteTable.FNV_OFFSET_BASIS;
+            for (int i = targetStart_; i < pathEnd_; i++) {
+                hash = (hash ^ (head_[i] & 0xff)) * RouteTable.FNV_PRIME;
+            }
+            return hash;
+        }
+
+        boolean isHttp11() {
+            return regionEquals(versionStart_, versionEnd_, "HTTP/1.1", false);
+        }
+
+        // The decoded value of a query parameter, "" if it has no value, or null if it is absent
+        String queryParameter(String name) {
+            int i = pathEnd_ + 1;
+            while (i < targetEnd_) {
+                int paramEnd = indexOf('&', i, targetEnd_);
+                int keyEnd = indexOf('=', i, paramEnd);
+
+                if (regionEquals(i, keyEnd, name, false)) {
+                    return keyEnd < paramEnd ? decode(keyEnd + 1, paramEnd) : "";
+                }
+                i = paramEnd + 1;
+            }
+            return null;
+        }
+
+        // The value of a header field with surrounding whitespace removed, or null if it is absent
+        String header(String name) {
+            int i = headersStart_;
+            while (i < headLength_) {
+                int lineEnd = indexOf('\n', i, headLength_);
+                int colon = indexOf(':', i, lineEnd);
+
+                if (colon < lineEnd && regionEquals(i, trimEnd(i, colon), name, true)) {
+                    int valueStart = colon + 1;
+                    while (valueStart < lineEnd && (head_[valueStart] == ' ' || head_[valueStart] == '\t')) {
+                        valueStart++;
+                    }
+                    return new String(head_, valueStart, trimEnd(valueStart, lineEnd) - valueStart, StandardCharsets.ISO_8859_1);
+                }
+                i = lineEnd + 1;
+            }
+            return null;
+        }
+
+        // Case-insensitive check for a token inside a header value, without building the value
+        boolean headerContains(String name, String token) {
+            int i = headersStart_;
+            while (i < headLength_) {
+                int lineEnd = indexOf('\n', i, headLength_);
+                int colon = indexOf(':', i, lineEnd);
+
+                if (colon < lineEnd && regionEquals(i, trimEnd(i, colon), name, true)) {
+                    for (int j = colon + 1; j + token.length() <= lineEnd; j++) {
+                        if (regionEquals(j, j + token.length(), token, true)) {
+                            return true;
+                        }
+                    }
+                }
+                i = lineEnd + 1;
+            }
+            return false;
+        }
+
+        boolean chunked() {
+            return headerContains("transfer-encoding", "chunked");
+        }
+
+        // Whether the client waits for "100 Continue" before sending the body
+        boolean expectsContinue() throws IOException {
+            return isHttp11() && headerContains("expect", "100-continue") && (chunked() || contentLength() > 0);
+        }
+
+        // "gzip" or "deflate" if Accept-Encoding allows it (gzip preferred), otherwise null for identity
+        String preferredEncoding() {
+            if (acceptsEncoding("gzip")) {
+                return "gzip";
+            } else if (acceptsEncoding("deflate")) {
+                return "deflate";
+            }
+            return null;
+        }
+
+        // True if Accept-Encoding lists the coding (or else "*") without q=0
+        boolean acceptsEncoding(String coding) {
+            boolean wildcard = false;
+            int i = headersStart_;
+            while (i < headLength_) {
+                int lineEnd = indexOf('\n', i, headLength_);
+                int colon = indexOf(':', i, lineEnd);
+
+                if (colon < lineEnd && regionEquals(i, trimEnd(i, colon), "accept-encoding", true)) {
+                    int j = colon + 1;
+                    while (j < lineEnd) {
+                        int itemEnd = indexOf(',', j, lineEnd);
+                        int paramsStart = indexOf(';', j, itemEnd);
+
+                        int tokenStart = j;
+                        while (tokenStart < paramsStart && head_[tokenStart] == ' ') {
+                            tokenStart++;
+                        }
+                        int tokenEnd = trimEnd(tokenStart, paramsStart);
+
+                        if (regionEquals(tokenStart, tokenEnd, coding, true)) {
+                            return !isZeroQuality(paramsStart, itemEnd);
+                        } else if (regionEquals(tokenStart, tokenEnd, "*", false)) {
+                            wildcard = !isZeroQuality(paramsStart, itemEnd);
+                        }
+                        j = itemEnd + 1;
+                    }
+                }
+                i = lineEnd + 1;
+            }
+            return wildcard;
+        }
+
+        // Looks for "q=0", "q=0.0", ... in the parameters of an Accept-Encoding item
+        private boolean isZeroQuality(int start, int end) {
+            for (int i = start; i + 2 < end; i++) {
+                if ((head_[i] | 0x20) == 'q' && head_[i + 1] == '=') {
+                    for (int j = i + 2; j < end && head_[j] != ' ' && head_[j] != '\r'; j++) {
+                        if (head_[j] >= '1' && head_[j] <= '9') {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        long contentLength() throws IOException {
+            int i = headersStart_;
+            while (i < headLength_) {
+                int lineEnd = indexOf('\n', i, headLength_);
+                int colon = indexOf(':', i, lineEnd);
+
+                if (colon < lineEnd && regionEquals(i, trimEnd(i, colon), "content-length", true)) {
+                    long length = 0;
+                    int digits = 0;
+                    for (int j = colon + 1; j < lineEnd; j++) {
+                        byte b = head_[j];
+                        if (b >= '0' && b <= '9' && digits < 18) {
+                            length = length * 10 + (b - '0');
+                            digits++;
+                        } else if (b != ' ' && b != '\t' && b != '\r') {
+                            throw new IOException("Bad Content-Length");
+                        }
+                    }
+                    return length;
+                }
+                i = lineEnd + 1;
+            }
+            return 0;
+        }
+
+        void discardBody() throws IOException {
+            if (body.read() < 0) {
+                return; // Nothing left over, the usual case
+            }
+
+            if (discard_ == null) {
+                discard_ = new byte[4096];
+            }
+            while (body.read(discard_) >= 0) {
+                // Discard
+            }
+        }
+
+        // HTTP/1.1 connections stay open unless the client asks to close them
+        boolean keepAlive() {
+            return isHttp11() && !headerContains("connection", "close");
+        }
+
+        // Write the request line straight from the raw bytes
+        void log(PrintStream out) {
+            synchronized (out) {
+                out.write(head_, 0, lineEnd_);
+                out.write('\n');
+            }
+        }
+
+        // Percent-decodes a query value ('+' is a space) and reads the result as UTF-8
+        private String decode(int start, int end) {
+            int i = start;
+            while (i < end && head_[i] != '%' && head_[i] != '+' && head_[i] >= 0) {
+                i++;
+            }
+            if (i == end) {
+                return new String(head_, start, end - start, StandardCharsets.ISO_8859_1); // Plain ASCII
+            }
+
+            if (scratch_ == null || scratch_.length < end - start) {
+                scratch_ = new byte[Math.max(MAX_HEAD_LENGTH, end - start)];
+            }
+
+            int length = 0;
+            for (i = start; i < end; i++) {
+                byte b = head_[i];
+                if (b == '+') {
+                    b = ' ';
+                } else if (b == '%' && i + 2 < end && hexValue(head_[i + 1]) >= 0 && hexValue(head_[i + 2]) >= 0) {
+                    b = (byte) (hexValue(head_[i + 1]) << 4 | hexValue(head_[i + 2]));
+                    i += 2;
+                }
+                scratch_[length++] = b;
+            }
+            return new String(scratch_, 0, length, StandardCharsets.UTF_8);
+        }
+
+        private static int hexValue(byte b) {
+            if (b >= '0' && b <= '9') {
+                return b - '0';
+            } else if (b >= 'a' && b <= 'f') {
+                return b - 'a' + 10;
+            } else if (b >= 'A' && b <= 'F') {
+                return b - 'A' + 10;
+            }
+            return -1;
+        }
+
+        // Index of the first b in [from, to), or to if there is none
+        private int indexOf(char b, int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (head_[i] == b) {
+                    return i;
+                }
+            }
+            return to;
+        }
+
+        private int skipSpaces(int i) {
+            while (i < lineEnd_ && head_[i] == ' ') {
+                i++;
+            }
+            return i;
+        }
+
+        private int trimEnd(int start, int end) {
+            while (end > start && (head_[end - 1] == ' ' || head_[end - 1] == '\t' || head_[end - 1] == '\r')) {
+                end--;
+            }
+            return end;
+        }
+
+        // Compares bytes [start, end) against an ASCII string
+        private boolean regionEquals(int start, int end, String s, boolean ignoreCase) {
+            if (end - start != s.length()) {
+                return false;
+            }
+
+            for (int i = 0; i < s.length(); i++) {
+                int a = head_[start + i];
+                int b = s.charAt(i);
+                if (a != b && !(ignoreCase && (a | 0x20) == (b | 0x20) && (a | 0x20) >= 'a' && (a | 0x20) <= 'z')) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Header bytes are ISO-8859-1; the line terminator (LF or CRLF) is dropped.  Only used for chunk size lines.
+        static String readLine(InputStream in) throws IOException {
+            StringBuilder sb = new StringBuilder();
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b < 0) {
+                    return sb.length() == 0 ? null : sb.toString();
+                }
+                if (sb.length() == MAX_HEAD_LENGTH) {
+                    throw new IOException("Line exceeds " + MAX_HEAD_LENGTH + " bytes");
+                }
+                sb.append((char) b);
+            }
+
+            int length = sb.length();
+            if (length > 0 && sb.charAt(length - 1) == '\r') {
+                sb.setLength(length - 1);
+            }
+            return sb.toString();
+        }
+
+    }
+
+    // Static files held in memory as ready-to-send responses.  A WatchService thread reloads a file when it
+    // changes on disk, so edits to words.html still show up without a restart.
+    private static class StaticFileCache {
+
+        private static final Map<String, String> CONTENT_TYPES = new HashMap<>();
+
+        static {
+            CONTENT_TYPES.put("html", "text/html; charset=utf-8");
+            CONTENT_TYPES.put("css", "text/css; charset=utf-8");
+            CONTENT_TYPES.put("js", "text/javascript; charset=utf-8");
+            CONTENT_TYPES.put("json", "application/json; charset=utf-8");
+            CONTENT_TYPES.put("txt", "text/plain; charset=utf-8");
+            CONTENT_TYPES.put("svg", "image/svg+xml");
+            CONTENT_TYPES.put("png", "image/png");
+            CONTENT_TYPES.put("jpg", "image/jpeg");
+            CONTENT_TYPES.put("jpeg", "image/jpeg");
+            CONTENT_TYPES.put("gif", "image/gif");
+            CONTENT_TYPES.put("webp", "image/webp");
+            CONTENT_TYPES.put("ico", "image/x-icon");
+            CONTENT_TYPES.put("woff", "font/woff");
+            CONTENT_TYPES.put("woff2", "font/woff2");
+            CONTENT_TYPES.put("pdf", "application/pdf");
+            CONTENT_TYPES.put("zip", "application/zip");
+            CONTENT_TYPES.put("wasm", "application/wasm");
+            CONTENT_TYPES.put("mp4", "video/mp4");
+            CONTENT_TYPES.put("webm", "video/webm");
+        }
+
+        private final Path directory_;
+        private final Map<String, CachedFile> files_ = new ConcurrentHashMap<>();
+
+        public StaticFileCache(Path directory) {
+            directory_ = directory.toAbsolutePath();
+
+            try {
+                WatchService watcher = directory_.getFileSystem().newWatchService();
+                directory_.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+
+                Thread thread = new Thread(() -> watch(watcher), "static-file-watcher");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                System.err.println("Static files will not be reloaded: " + e.getMessage());
+            }
+        }
+
+        // Loaded on first use, then served from memory.  Loading happens inside the map so a reload from the
+        // watcher cannot be overwritten by an older copy.
+        CachedFile get(String fileName) throws IOException {
+            try {
+                return files_.computeIfAbsent(fileName, name -> {
+                    try {
+                        return load(name);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+
+        // The file a URL path refers to, or null unless it is a regular file inside the directory with a known type
+        Path locate(String urlPath) {
+            if (urlPath.contains("..") || urlPath.contains("%") || urlPath.contains("\\") || urlPath.contains("/.")) {
+                return null;
+            }
+
+            Path path = directory_.resolve(urlPath.substring(1)).normalize();
+            if (!path.startsWith(directory_) || !Files.isRegularFile(path) || contentType(path) == null) {
+                return null;
+            }
+            return path;
+        }
+
+        // Only these types are served, which keeps the sources and build files next to them private
+        static String contentType(Path path) {
+            String name = path.getFileName().toString();
+            return CONTENT_TYPES.get(name.substring(name.lastIndexOf('.') + 1).toLowerCase());
+        }
+
+        private CachedFile load(String fileName) throws IOException {
+            Path path = directory_.resolve(fileName);
+            if (!Files.isRegularFile(path)) {
+                throw new FileNotFoundException(fileName);
+            }
+            return new CachedFile(Files.readAllBytes(path), Files.getLastModifiedTime(path).toInstant());
+        }
+
+        private void watch(WatchService watcher) {
+            while (true) {
+                try {
+                    WatchKey key = watcher.take();
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.context() == null) {
+                            continue; // Overflow: events were lost, so the cache is refreshed on next use
+                        }
+
+                        reload(event.context().toString());
+                    }
+                    key.reset();
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        // Only files already in use are reloaded; this waits for a load of the same file that is in progress
+        private void reload(String fileName) {
+            files_.computeIfPresent(fileName, (name, old) -> {
+                try {
+                    CachedFile file = load(name);
+                    System.out.println("Reloaded " + name);
+                    return file;
+                } catch (IOException e) {
+                    return null; // Deleted, or unreadable: the next request reports it
+                }
+            });
+        }
+
+    }
+
+    // Everything that depends only on the file's contents (compressed variants, content-hash ETags, Last-Modified
+    // and the 304 responses) is built once per file version, at load time
+    private static class CachedFile {
+
+        private static final int MAX_AGE_SECONDS = Integer.getInteger("havalo.staticMaxAge", 60);
+
+        private final long lastModifiedSeconds_;
+        private final Representation identity_;
+        private final Representation gzip_;
+        private final Representation deflate_;
+
+        CachedFile(byte[] body, Instant lastModified) throws IOException {
+            lastModifiedSeconds_ = lastModified.getEpochSecond();
+
+            String hash = contentHash(body);
+            String lastModifiedHeader = DateTimeFormatter.RFC_1123_DATE_TIME.format(lastModified.atOffset(ZoneOffset.UTC));
+
+            identity_ = new Representation(body, null, hash, lastModifiedHeader);
+            gzip_ = new Representation(Router.compress(body, "gzip"), "gzip", hash, lastModifiedHeader);
+            deflate_ = new Representation(Router.compress(body, "deflate"), "deflate", hash, lastModifiedHeader);
+        }
+
+        // The prebuilt response for the request: 304 if its validators still match, otherwise the body in the
+        // negotiated content coding
+        byte[] response(Request request) {
+            Representation representation = representation(request.preferredEncoding());
+            return isNotModified(request, representation) ? representation.notModified : representation.response;
+        }
+
+        private Representation representation(String encoding) {
+            if ("gzip".equals(encoding) && gzip_.response.length < identity_.response.length) {
+                return gzip_;
+            } else if ("deflate".equals(encoding) && deflate_.response.length < identity_.response.length) {
+                return deflate_;
+            }
+            return identity_;
+        }
+
+        // If-None-Match takes precedence; If-Modified-Since is only consulted without it
+        private boolean isNotModified(Request request, Representation representation) {
+            String ifNoneMatch = request.header("if-none-match");
+            if (ifNoneMatch != null) {
+                for (String tag : ifNoneMatch.split(",")) {
+                    tag = tag.trim();
+                    if (tag.startsWith("W/")) {
+                        tag = tag.substring(2); // Weak comparison is fine for GET
+                    }
+                    if (tag.equals("*") || tag.equals(representation.etag)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            String ifModifiedSince = request.header("if-modified-since");
+            if (ifModifiedSince != null) {
+                try {
+                    long since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
+                    return lastModifiedSeconds_ <= since;
+                } catch (DateTimeParseException e) {
+                    return false; // Invalid dates are ignored
+                }
+            }
+            return false;
+        }
+
+        private static String contentHash(byte[] body) {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+                StringBuilder hex = new StringBuilder();
+                for (int i = 0; i < 8; i++) {
+                    hex.append(String.format("%02x", digest[i]));
+                }
+                return hex.toString();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e); // Every JRE ships SHA-256
+            }
+        }
+
+        // One content coding of the file; each gets its own strong ETag
+        private static class Representation {
+
+            final String etag;
+            final byte[] response;
+            final byte[] notModified;
+
+            Representation(byte[] body, String encoding, String hash, String lastModified) {
+                etag = "\"" + hash + (encoding != null ? "-" + encoding : "") + "\"";
+
+                String validators = "ETag: " + etag + "\r\n"
+                        + "Last-Modified: " + lastModified + "\r\n"
+                        + "Cache-Control: public, max-age=" + MAX_AGE_SECONDS + "\r\n"
+                        + "Vary: Accept-Encoding\r\n";
+
+                byte[] head = ("HTTP/1.1 200 OK\r\n"
+                        + "Content-Type: text/html; charset=utf-8\r\n"
+                        + validators
+                        + (encoding != null ? "Content-Encoding: " + encoding + "\r\n" : "")
+                        + "Content-Length: " + body.length + "\r\n"
+                        + "\r\n").getBytes(StandardCharsets.US_ASCII);
+
+                response = Arrays.copyOf(head, head.length + body.length);
+                System.arraycopy(body, 0, response, head.length, body.length);
+
+                notModified = ("HTTP/1.1 304 Not Modified\r\n"
+                        + validators
+                        + "\r\n").getBytes(StandardCharsets.US_ASCII);
+            }
+
+        }
+
+    }
+
+    // How an engine puts bytes that are not on the Java heap (files, off-heap cache slabs) on the wire after the
+    // headers already written to 'headers'
+    private interface FileSender {
+
+        void sendFile(PrintStream headers, FileChannel file, long size) throws IOException;
+
+        // By default the buffer is copied through the header stream
+        default void sendBuffer(PrintStream headers, ByteBuffer buffer) throws IOException {
+            Channels.newChannel(headers).write(buffer);
+        }
+
+    }
+
+    private interface Handler {
+
+        void handle(Request request, PrintStream out) throws Exception;
+
+    }
+
+    // Produces the body of a streamed response; Router.sendStream takes care of the framing
+    private interface BodyWriter {
+
+        void write(Writer writer) throws IOException;
+
+    }
+
+    // Open-addressing table from path to Handler.  Lookups hash the request's path bytes directly, so finding a
+    // route costs one hash of the path and (almost always) one comparison, however many routes are registered.
+    private static class RouteTable {
+
+        static final int FNV_OFFSET_BASIS = 0x811c9dc5;
+        static final int FNV_PRIME = 0x01000193;
+
+        private String[] paths_ = new String[16];
+        private Handler[] handlers_ = new Handler[16];
+        private boolean[] slow_ = new boolean[16];
+        private int size_;
+
+        void register(String path, Handler handler) {
+            register(path, handler, false);
+        }
+
+        // Paths are ASCII, so hashing their chars matches hashing the bytes a request carries.  Slow handlers may
+        // take long or stream a lot (see isSlow).
+        void register(String path, Handler handler, boolean slow) {
+            if (2 * (size_ + 1) > paths_.length) {
+                resize();
+            }
+
+            int mask = paths_.length - 1;
+            int i = hash(path) & mask;
+            while (paths_[i] != null && !paths_[i].equals(path)) {
+                i = (i + 1) & mask;
+            }
+            if (paths_[i] == null) {
+                size_++;
+            }
+            paths_[i] = path;
+            handlers_[i] = handler;
+            slow_[i] = slow;
+        }
+
+        Handler lookup(Request request) {
+            int i = find(request);
+            return i >= 0 ? handlers_[i] : null;
+        }
+
+        // Whether the request's handler was registered as slow; the NIO engine runs those off its event loops
+        boolean isSlow(Request request) {
+            int i = find(request);
+            return i >= 0 && slow_[i];
+        }
+
+        private int find(Request request) {
+            int mask = paths_.length - 1;
+            int i = request.pathHash() & mask;
+            while (paths_[i] != null) {
+                if (request.pathIs(paths_[i])) {
+                    return i;
+                }
+                i = (i + 1) & mask;
+            }
+            return -1;
+        }
+
+        private void resize() {
+            String[] paths = paths_;
+            Handler[] handlers = handlers_;
+            boolean[] slow = slow_;
+            paths_ = new String[paths.length * 2];
+            handlers_ = new Handler[paths.length * 2];
+            slow_ = new boolean[paths.length * 2];
+            size_ = 0;
+
+            for (int i = 0; i < paths.length; i++) {
+                if (paths[i] != null) {
+                    register(paths[i], handlers[i], slow[i]);
+                }
+            }
+        }
+
+        static int hash(String path) {
+            int hash = FNV_OFFSET_BASIS;
+            for (int i = 0; i < path.length(); i++) {
+                hash = (hash ^ path.charAt(i)) * FNV_PRIME;
+            }
+            return hash;
+        }
+
+    }
+
+    // Reads exactly the declared Content-Length from the connection, leaving the next request untouched
+    private static class BoundedInputStream extends FilterInputStream {
+
+        private long remaining_;
+
+        BoundedInputStream(InputStream in, long length) {
+            super(in);
+            remaining_ = length;
+        }
+
+        // Reuse this stream for the next request's body
+        BoundedInputStream reset(InputStream in, long length) {
+            this.in = in;
+            remaining_ = length;
+            return this;
+        }
+
+        public int read() throws IOException {
+            if (remaining_ <= 0) {
+                return -1;
+            }
+
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Request body ended early");
+            }
+            remaining_--;
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining_ <= 0) {
+                return -1;
+            }
+
+            int n = in.read(b, off, (int) Math.min(len, remaining_));
+            if (n < 0) {
+                throw new EOFException("Request body ended early");
+            }
+            remaining_ -= n;
+            return n;
+        }
+
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining_);
+        }
+
+        public void close() {
+            // The connection outlives the body
+        }
+
+    }
+
+    // Decodes a "Transfer-Encoding: chunked" request body
+    private static class ChunkedInputStream extends FilterInputStream {
+
+        private long chunkRemaining_;
+        private boolean done_;
+
+        ChunkedInputStream(InputStream in) {
+            super(in);
+        }
+
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (!nextChunk()) {
+                return -1;
+            }
+
+            int n = in.read(b, off, (int) Math.min(len, chunkRemaining_));
+            if (n < 0) {
+                throw new EOFException("Chunked body ended early");
+            }
+            chunkRemaining_ -= n;
+            return n;
+        }
+
+        public int available() throws IOException {
+            return done_ ? 0 : (int) Math.min(in.available(), chunkRemaining_);
+        }
+
+        public void close() {
+            // The connection outlives the body
+        }
+
+        // Move past chunk boundaries; false once the last chunk and its trailers have been read
+        private boolean nextChunk() throws IOException {
+            while (!done_ && chunkRemaining_ == 0) {
+                String sizeLine = Request.readLine(in);
+                if (sizeLine == null) {
+                    throw new EOFException("Chunked body ended early");
+                }
+                if (sizeLine.isEmpty()) {
+                    continue; // CRLF that ends the previous chunk's data
+                }
+
+                int extension = sizeLine.indexOf(';');
+                try {
+                    chunkRemaining_ = Long.parseLong((extension < 0 ? sizeLine : sizeLine.substring(0, extension)).trim(), 16);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Bad chunk size: " + sizeLine);
+                }
+
+                if (chunkRemaining_ == 0) {
+                    String trailer;
+                    while ((trailer = Request.readLine(in)) != null && !trailer.isEmpty()) {
+                        // Trailers are ignored
+                    }
+                    done_ = true;
+                }
+            }
+            return !done_;
+        }
+
+    }
+
+    // Frames everything written to it as HTTP/1.1 chunks; finish() writes the terminating chunk and leaves
+    // the underlying stream open for the next response
+    private static class ChunkedOutputStream extends FilterOutputStream {
+
+        ChunkedOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return; // A zero-length chunk would end the body
+            }
+
+            out.write(Integer.toHexString(len).getBytes(StandardCharsets.US_ASCII));
+            out.write('\r');
+            out.write('\n');
+            out.write(b, off, len);
+            out.write('\r');
+            out.write('\n');
+        }
+
+        void finish() throws IOException {
+            out.write("0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+        }
+
+        public void close() {
+            // The connection outlives the response
+        }
+
+    }
+
+    // Bounded cache of handler results keyed by route, option and word, shared by all engines.  Split into 16
+    // segments, each with its own lock, share of the byte budget and W-TinyLFU policy (see Segment).
+    private static final class ResultCache {
+
+        private static final int SEGMENTS = 16;
+
+        // Rough per-entry cost on top of the chars: the key, two String headers and the map entry
+        private static final int ENTRY_OVERHEAD = 128;
+
+        private final long maxBytes_;
+        private final Segment[] segments_ = new Segment[SEGMENTS];
+
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+        final LongAdder evictions = new LongAdder();
+
+        ResultCache(long maxBytes) {
+            maxBytes_ = maxBytes;
+            for (int i = 0; i < SEGMENTS; i++) {
+                segments_[i] = new Segment(maxBytes / SEGMENTS);
+            }
+        }
+
+        // Returns the cached result, or computes and caches it.  compute runs outside the lock, so two threads
+        // missing on the same word at once may both compute it; the results are equal, so that is harmless.
+        String get(String route, String option, String word, Function<String, String> compute) {
+            if (maxBytes_ <= 0) {
+                return compute.apply(word);
+            }
+
+            Key key = new Key(route, option, word);
+            int hash = key.hashCode();
+            Segment segment = segments_[(hash ^ hash >>> 16) & (SEGMENTS - 1)];
+
+            String result;
+            synchronized (segment) {
+                result = segment.get(key);
+            }
+            if (result != null) {
+                hits.increment();
+                return result;
+            }
+
+            misses.increment();
+            result = compute.apply(word);
+
+            long size = sizeOf(key, result);
+            if (size <= segment.windowMaxBytes_ + segment.mainMaxBytes_) {
+                synchronized (segment) {
+                    segment.put(key, result, size, evictions);
+                }
+            }
+            return result;
+        }
+
+        long bytes() {
+            long bytes = 0;
+            for (Segment segment : segments_) {
+                synchronized (segment) {
+                    bytes += segment.bytes_[Segment.WINDOW] + segment.bytes_[Segment.PROBATION]
+                            + segment.bytes_[Segment.PROTECTED];
+                }
+            }
+            return bytes;
+        }
+
+        long entries() {
+            long entries = 0;
+            for (Segment segment : segments_) {
+                synchronized (segment) {
+                    entries += segment.nodes_.size();
+                }
+            }
+            return entries;
+        }
+
+        private static long sizeOf(Key key, String result) {
+            return 2L * (key.option_.length() + key.word_.length() + result.length()) + ENTRY_OVERHEAD;
+        }
+
+        // W-TinyLFU: new entries go to an LRU window (1% of the bytes).  The window's eldest replaces the eldest
+        // probation entry only if the sketch says it is requested more often, else it is dropped.  Probation hits
+        // move to the protected list (80% of the main area), whose eldest fall back to probation.
+        private static final class Segment {
+
+            static final int WINDOW = 0;
+            static final int PROBATION = 1;
+            static final int PROTECTED = 2;
+
+            private final long windowMaxBytes_;
+            private final long mainMaxBytes_;
+            private final long protectedMaxBytes_;
+
+            private final Map<Key, Node> nodes_ = new HashMap<>();
+            private final FrequencySketch sketch_;
+
+            // One circular list per area, eldest first, each starting from a sentinel node
+            private final Node[] lists_ = new Node[3];
+            private final long[] bytes_ = new long[3];
+
+            Segment(long maxBytes) {
+                windowMaxBytes_ = maxBytes / 100;
+                mainMaxBytes_ = maxBytes - windowMaxBytes_;
+                protectedMaxBytes_ = mainMaxBytes_ * 8 / 10;
+                sketch_ = new FrequencySketch(maxBytes / (ENTRY_OVERHEAD + 64));
+
+                for (int i = 0; i < lists_.length; i++) {
+                    lists_[i] = new Node(null, null, 0);
+                    lists_[i].prev = lists_[i];
+                    lists_[i].next = lists_[i];
+                }
+            }
+
+            String get(Key key) {
+                sketch_.increment(key.hashCode());
+
+                Node node = nodes_.get(key);
+                if (node == null) {
+                    return null;
+                }
+
+                if (node.area == PROBATION) {
+                    move(node, PROTECTED);
+                    while (bytes_[PROTECTED] > protectedMaxBytes_) {
+                        move(lists_[PROTECTED].next, PROBATION);
+                    }
+                } else {
+                    move(node, node.area);
+                }
+                return node.value;
+            }
+
+            void put(Key key, String value, long size, LongAdder evictions) {
+                Node node = nodes_.get(key);
+                if (node != null) {
+                    // Another thread got here first with the same result
+                    return;
+                }
+
+                node = new Node(key, value, size);
+                nodes_.put(key, node);
+                link(node, WINDOW);
+
+                while (bytes_[WINDOW] > windowMaxBytes_) {
+                    Node candidate = lists_[WINDOW].next;
+                    if (admit(candidate, evictions)) {
+                        move(candidate, PROBATION);
+                    } else {
+                        remove(candidate);
+                        evictions.increment();
+                    }
+                }
+            }
+
+            // Makes room in the main area for the candidate, as long as it is requested more often than each
+            // entry it would displace
+            private boolean admit(Node candidate, LongAdder evictions) {
+                int frequency = sketch_.frequency(candidate.key.hashCode());
+
+                while (bytes_[PROBATION] + bytes_[PROTECTED] + candidate.size > mainMaxBytes_) {
+                    Node victim = lists_[PROBATION].next != lists_[PROBATION]
+                            ? lists_[PROBATION].next : lists_[PROTECTED].next;
+                    if (victim == lists_[PROTECTED] || frequency <= sketch_.frequency(victim.key.hashCode())) {
+                        return false;
+                    }
+
+                    remove(victim);
+                    evictions.increment();
+                }
+                return true;
+            }
+
+            // Moves the node to the most recently used end of the area's list
+            private void move(Node node, int area) {
+                unlink(node);
+                link(node, area);
+            }
+
+            private void remove(Node node) {
+                unlink(node);
+                nodes_.remove(node.key);
+            }
+
+            private void link(Node node, int area) {
+                Node list = lists_[area];
+                node.area = area;
+                node.prev = list.prev;
+                node.next = list;
+                list.prev.next = node;
+                list.prev = node;
+                bytes_[area] += node.size;
+            }
+
+            private void unlink(Node node) {
+                node.prev.next = node.next;
+                node.next.prev = node.prev;
+                bytes_[node.area] -= node.size;
+            }
+
+        }
+
+        private static final class Node {
+
+            final Key key;
+            final String value;
+            final long size;
+            int area;
+            Node prev;
+            Node next;
+
+            Node(Key key, String value, long size) {
+                this.key = key;
+                this.value = value;
+                this.size = size;
+            }
+
+        }
+
+        // Count-min sketch of request frequency: four rows of 4-bit counters, the estimate being the smallest.  All
+        // counts are halved every 10 × width increments, so it follows what is popular now.
+        private static final class FrequencySketch {
+
+            private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+            private final byte[][] rows_ = new byte[SEEDS.length][];
+            private final int mask_;
+            private final int sampleSize_;
+            private int additions_;
+
+            FrequencySketch(long expectedEntries) {
+                int width = Integer.highestOneBit((int) Math.min(Math.max(expectedEntries, 16), 1 << 24) * 2 - 1);
+                for (int i = 0; i < rows_.length; i++) {
+                    rows_[i] = new byte[width];
+                }
+                mask_ = width - 1;
+                sampleSize_ = 10 * width;
+            }
+
+            void increment(int hash) {
+                for (int i = 0; i < rows_.length; i++) {
+                    int index = index(hash, i);
+                    if (rows_[i][index] < 15) {
+                        rows_[i][index]++;
+                    }
+                }
+
+                if (++additions_ == sampleSize_) {
+                    for (byte[] row : rows_) {
+                        for (int j = 0; j < row.length; j++) {
+                            row[j] >>= 1;
+                        }
+                    }
+                    additions_ /= 2;
+                }
+            }
+
+            int frequency(int hash) {
+                int frequency = 15;
+                for (int i = 0; i < rows_.length; i++) {
+                    frequency = Math.min(frequency, rows_[i][index(hash, i)]);
+                }
+                return frequency;
+            }
+
+            private int index(int hash, int row) {
+                int h = hash * SEEDS[row];
+                return (h ^ h >>> 16) & mask_;
+            }
+
+        }
+
+        private static final class Key {
+
+            private final String route_;
+            private final String option_;
+            private final String word_;
+            private final int hash_;
+
+            Key(String route, String option, String word) {
+                route_ = route;
+                option_ = option;
+                word_ = word;
+                hash_ = (route.hashCode() * 31 + option.hashCode()) * 31 + word.hashCode();
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                if (!(o instanceof Key)) {
+                    return false;
+                }
+                Key other = (Key) o;
+                return hash_ == other.hash_ && word_.equals(other.word_) && route_.equals(other.route_)
+                        && option_.equals(other.option_);
+            }
+
+            @Override
+            public int hashCode() {
+                return hash_;
+            }
+
+        }
+
+    }
+
+    // Large results kept UTF-8 encoded outside the heap, so the GC never traces or copies them, in a ring of direct
+    // ByteBuffer slabs.  A full ring drops the oldest slab's entries and replaces (not overwrites) the slab, so
+    // responses still writing from it stay intact.  Hits are read-only views the engines write as they are.
+    private static final class OffHeapCache {
+
+        // Results of words shorter than this stay on the heap, in the ResultCache
+        private static final int MIN_LENGTH = 1024;
+        private static final int MAX_SLAB_BYTES = 4 << 20;
+
+        // Record: hash (8 bytes), key length (4), value length (4), key and value, both UTF-8
+        private static final int HEADER_BYTES = 16;
+
+        private final int slabBytes_;
+        private final ByteBuffer[] slabs_;
+        private final int[] slabFill_;
+        private int current_;
+
+        private final long[] hashes_;    // 0 marks an empty slot
+        private final long[] locations_; // slab << 32 | offset
+        private int entries_;
+
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+        final LongAdder evictions = new LongAdder();
+
+        OffHeapCache(long maxBytes) {
+            int slabs = maxBytes <= 0 ? 0 : (int) Math.max(2, maxBytes / MAX_SLAB_BYTES);
+            slabBytes_ = slabs == 0 ? 0 : (int) Math.min(MAX_SLAB_BYTES, maxBytes / slabs);
+            slabs_ = new ByteBuffer[slabs];
+            slabFill_ = new int[slabs];
+
+            // Every record takes at least HEADER_BYTES + 2 * MIN_LENGTH bytes, which bounds the entry count; the
+            // index is kept at most half full
+            long maxEntries = slabs * (long) slabBytes_ / (HEADER_BYTES + 2 * MIN_LENGTH) + slabs;
+            int capacity = Integer.highestOneBit((int) Math.max(16, maxEntries * 2) * 2 - 1);
+            hashes_ = new long[slabs == 0 ? 0 : capacity];
+            locations_ = new long[slabs == 0 ? 0 : capacity];
+        }
+
+        boolean enabled() {
+            return slabs_.length > 0;
+        }
+
+        // Whether results for this word belong here; the size check assumes the worst case of 3 UTF-8 bytes per char
+        boolean accepts(String word) {
+            return enabled() && word != null && word.length() >= MIN_LENGTH
+                    && HEADER_BYTES + 6L * (word.length() + 16) <= slabBytes_;
+        }
+
+        ByteBuffer get(String option, String word) {
+            long hash = hash(option, word);
+            byte[] key = key(option, word);
+            synchronized (this) {
+                ByteBuffer value = find(hash, key);
+                if (value != null) {
+                    hits.increment();
+                    return value;
+                }
+            }
+
+            misses.increment();
+            return null;
+        }
+
+        // Stores the result, which must be accepts()-sized, and returns it as it will be served from now on, or null
+        // if no direct memory could be had for it
+        ByteBuffer put(String option, String word, String result) {
+            long hash = hash(option, word);
+            byte[] key = key(option, word);
+            byte[] value = result.getBytes(StandardCharsets.UTF_8);
+            int record = HEADER_BYTES + key.length + value.length;
+
+            synchronized (this) {
+                // Another request may have stored it in the meantime
+                ByteBuffer existing = find(hash, key);
+                if (existing != null) {
+                    return existing;
+                }
+
+                if ((slabs_[current_] == null || slabFill_[current_] + record > slabBytes_) && !nextSlab()) {
+                    return null;
+                }
+
+                ByteBuffer slab = slabs_[current_];
+                int offset = slabFill_[current_];
+                slab.putLong(offset, hash);
+                slab.putInt(offset + 8, key.length);
+                slab.putInt(offset + 12, value.length);
+                ByteBuffer contents = slab.duplicate();
+                contents.position(offset + HEADER_BYTES);
+                contents.put(key).put(value);
+                slabFill_[current_] = offset + record;
+
+                int i = slot(hash);
+                while (hashes_[i] != 0) {
+                    i = (i + 1) & (hashes_.length - 1);
+                }
+                hashes_[i] = hash;
+                locations_[i] = (long) current_ << 32 | offset;
+                entries_++;
+
+                return value(slab, offset);
+            }
+        }
+
+        synchronized int entries() {
+            return entries_;
+        }
+
+        synchronized long bytes() {
+            long bytes = 0;
+            for (int fill : slabFill_) {
+                bytes += fill;
+            }
+            return bytes;
+        }
+
+        // The value stored under the key, or null.  Different keys can share a hash, so probing goes on past
+        // entries whose key does not match.
+        private ByteBuffer find(long hash, byte[] key) {
+            for (int i = slot(hash); hashes_[i] != 0; i = (i + 1) & (hashes_.length - 1)) {
+                if (hashes_[i] == hash) {
+                    ByteBuffer slab = slabs_[(int) (locations_[i] >>> 32)];
+                    int offset = (int) locations_[i];
+                    if (keyEquals(slab, offset, key)) {
+                        return value(slab, offset);
+                    }
+                }
+            }
+            return null;
+        }
+
+        // Moves on to the next slab in the ring, dropping whatever it held.  The old buffer is released before its
+        // replacement is reserved, and if the direct memory limit still does not allow it the slab stays empty.
+        private boolean nextSlab() {
+            if (slabs_[current_] != null) {
+                current_ = (current_ + 1) % slabs_.length;
+            }
+
+            ByteBuffer old = slabs_[current_];
+            if (old != null) {
+                for (int offset = 0; offset < slabFill_[current_]; ) {
+                    remove(old.getLong(offset), (long) current_ << 32 | offset);
+                    offset += HEADER_BYTES + old.getInt(offset + 8) + old.getInt(offset + 12);
+                    evictions.increment();
+                }
+            }
+
+            slabs_[current_] = null;
+            slabFill_[current_] = 0;
+            try {
+                slabs_[current_] = ByteBuffer.allocateDirect(slabBytes_);
+                return true;
+            } catch (OutOfMemoryError e) {
+                return false;
+            }
+        }
+
+        // Backward-shift deletion, so lookups never need tombstones
+        private void remove(long hash, long location) {
+            int mask = hashes_.length - 1;
+            int i = slot(hash);
+            while (hashes_[i] != hash || locations_[i] != location) {
+                i = (i + 1) & mask;
+            }
+
+            for (int j = (i + 1) & mask; hashes_[j] != 0; j = (j + 1) & mask) {
+                int home = slot(hashes_[j]);
+                // The entry at j may fill the hole at i only if its home slot is not cyclically within (i, j]
+                if (i <= j ? (home <= i || home > j) : (home <= i && home > j)) {
+                    hashes_[i] = hashes_[j];
+                    locations_[i] = locations_[j];
+                    i = j;
+                }
+            }
+            hashes_[i] = 0;
+            locations_[i] = 0;
+            entries_--;
+        }
+
+        private static byte[] key(String option, String word) {
+            return (option + '\0' + word).getBytes(StandardCharsets.UTF_8);
+        }
+
+        private static boolean keyEquals(ByteBuffer slab, int offset, byte[] key) {
+            if (slab.getInt(offset + 8) != key.length) {
+                return false;
+            }
+            return range(slab, offset + HEADER_BYTES, key.length).equals(ByteBuffer.wrap(key));
+        }
+
+        private static ByteBuffer value(ByteBuffer slab, int offset) {
+            return range(slab, offset + HEADER_BYTES + slab.getInt(offset + 8), slab.getInt(offset + 12));
+        }
+
+        private static ByteBuffer range(ByteBuffer slab, int start, int length) {
+            ByteBuffer range = slab.asReadOnlyBuffer();
+            range.limit(start + length);
+            range.position(start);
+            return range;
+        }
+
+        private int slot(long hash) {
+            return (int) (hash ^ hash >>> 32) * 0x9E3779B9 >>> Integer.numberOfLeadingZeros(hashes_.length - 1);
+        }
+
+        // Spreads the two string hashes over 64 bits; never 0, which marks empty slots.  Keys are compared in
+        // full, so colliding words only cost extra probes.
+        private static long hash(String option, String word) {
+            long hash = ((long) option.hashCode() << 32 ^ word.hashCode() ^ (long) word.length() << 40) * 0x9E3779B97F4A7C15L;
+            return hash != 0 ? hash : 1;
+        }
+
+    }
+
+    // Counters exposed through the /metrics route
+    private static class Metrics {
+
+        static final AtomicLong rejectedConnections = new AtomicLong();
+        static volatile ThreadPoolExecutor workerPool;
+
+        static String report() {
+            StringBuilder sb = new StringBuilder();
+            ThreadPoolExecutor pool = workerPool;
+            if (pool != null) {
+                sb.append("worker_pool_size ").append(pool.getPoolSize()).append('\n');
+                sb.append("worker_active ").append(pool.getActiveCount()).append('\n');
+                sb.append("worker_queue_depth ").append(pool.getQueue().size()).append('\n');
+                sb.append("worker_queue_remaining ").append(pool.getQueue().remainingCapacity()).append('\n');
+            }
+            sb.append("rejected_connections ").append(rejectedConnections.get()).append('\n');
+
+            ResultCache results = Router.RESULTS;
+            sb.append("result_cache_hits ").append(results.hits.sum()).append('\n');
+            sb.append("result_cache_misses ").append(results.misses.sum()).append('\n');
+            sb.append("result_cache_evictions ").append(results.evictions.sum()).append('\n');
+            sb.append("result_cache_entries ").append(results.entries()).append('\n');
+            sb.append("result_cache_bytes ").append(results.bytes()).append('\n');
+
+            OffHeapCache offHeap = Router.OFF_HEAP_RESULTS;
+            if (offHeap.enabled()) {
+                sb.append("off_heap_cache_hits ").append(offHeap.hits.sum()).append('\n');
+                sb.append("off_heap_cache_misses ").append(offHeap.misses.sum()).append('\n');
+                sb.append("off_heap_cache_evictions ").append(offHeap.evictions.sum()).append('\n');
+                sb.append("off_heap_cache_entries ").append(offHeap.entries()).append('\n');
+                sb.append("off_heap_cache_bytes ").append(offHeap.bytes()).append('\n');
+            }
+            return sb.toString();
         }
 
     }
@@ -0,0 +1,70 @@
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Optional SIMD versions of the palindrome and reverse loops, built on the jdk.incubator.vector module.
+ *
+ * The Makefile only compiles this file when the JDK ships that module, and HavaloCodingChallenge only loads it when
+ * the server runs with --add-modules jdk.incubator.vector.  Otherwise the scalar loops are used.
+ */
+final class VectorKernels implements HavaloCodingChallenge.TextKernels {
+
+    // A Java char is 16 bits, so chars are processed as short lanes
+    private static final VectorSpecies<Short> SPECIES = ShortVector.SPECIES_PREFERRED;
+    private static final VectorShuffle<Short> REVERSE = VectorShuffle.fromOp(SPECIES, i -> SPECIES.length() - 1 - i);
+
+    // Chars compared per window by isPalindrome, small enough for both windows to stay in L1
+    private static final int WINDOW = 4096;
+
+    public boolean isPalindrome(String word) {
+        // Copy matching windows from both ends into a small scratch buffer instead of the whole word
+        int lanes = SPECIES.length();
+        int window = Math.max(lanes, WINDOW / lanes * lanes);
+        char[] front = new char[window];
+        char[] back = new char[window];
+
+        int i = 0;
+        int j = word.length();
+        while (j - i >= 2 * window) {
+            word.getChars(i, i + window, front, 0);
+            word.getChars(j - window, j, back, 0);
+            for (int k = 0; k < window; k += lanes) {
+                ShortVector f = ShortVector.fromCharArray(SPECIES, front, k);
+                ShortVector b = ShortVector.fromCharArray(SPECIES, back, window - k - lanes).rearrange(REVERSE);
+                if (!f.eq(b).allTrue()) {
+                    return false;
+                }
+            }
+            i += window;
+            j -= window;
+        }
+
+        for (j--; i < j; i++, j--) {
+            if (word.charAt(i) != word.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String reverseWord(String word) {
+        char[] wordCharArr = word.toCharArray();
+        char[] returnCharArr = new char[wordCharArr.length];
+        int length = wordCharArr.length;
+        int lanes = SPECIES.length();
+
+        // Each block is lane-reversed and stored at the mirrored position
+        int i = 0;
+        for (; i + lanes <= length; i += lanes) {
+            ShortVector.fromCharArray(SPECIES, wordCharArr, i).rearrange(REVERSE)
+                    .intoCharArray(returnCharArr, length - i - lanes);
+        }
+
+        for (; i < length; i++) {
+            returnCharArr[length - 1 - i] = wordCharArr[i];
+        }
+        return new String(returnCharArr);
+    }
+
+}